@@ -0,0 +1,84 @@
+package src;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DispatchBenchmark
+ * How long it takes from the Conductor calling Member.triggerPlay until the Member hands the note
+ * to the mixer (the point where it would start being written), in each execution mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DispatchBenchmark {
+
+    @Param({"PLATFORM", "POOLED"})
+    public String mode;
+
+    private CountingMixer mixer;
+    private Member member;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mixer = new CountingMixer();
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        member = new Member("Bench", Note.A4);
+        member.start(ExecutionMode.valueOf(mode), pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        member.stopPlaying();
+        member.joinThread();
+        pool.shutdown();
+    }
+
+    /**
+     * Triggers one note and waits until the Member has handed it to the mixer.
+     */
+    @Benchmark
+    public long triggerToPlay() {
+        long before = mixer.played;
+        member.triggerPlay(Mixer.BLOCK_FRAMES, mixer);
+        while (mixer.played == before) {
+            Thread.onSpinWait();
+        }
+        return mixer.played;
+    }
+
+    /**
+     * CountingMixer - Stands in for the Mixer and only counts the notes handed to it.
+     */
+    static class CountingMixer extends Mixer {
+        volatile long played = 0;
+
+        CountingMixer() {
+            super(new StubLine(PcmFormat.DEFAULT.toAudioFormat())); // Never started, the line only gives it a format
+        }
+
+        @Override
+        public void play(Note note, int length, long triggerNanos) {
+            played++; // Only the one Member thread writes this
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package src;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutputBenchmark
+ * How fast the Mixer can mix and write blocks to the line, with a given number of notes sounding.
+ * The line is a StubLine, so this measures our own output path and not the sound card.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class OutputBenchmark {
+
+    @Param({"1", "8", "32", "64"}) // 64 is every voice in the VoicePool
+    public int voices;
+
+    private Mixer mixer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
+        StubLine line = new StubLine(af);
+        line.open(af);
+        mixer = new Mixer(line); // Never started, the benchmark drives it block by block
+        Note[] notes = Note.values();
+        for (int i = 0; i < voices; i++) {
+            mixer.play(notes[1 + i % (notes.length - 1)], Integer.MAX_VALUE); // Long enough to never run out
+        }
+    }
+
+    /**
+     * Mixes one block of every sounding voice and writes it to the line.
+     */
+    @Benchmark
+    public boolean writeBlock() {
+        return mixer.writeBlock();
+    }
+}
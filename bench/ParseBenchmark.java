@@ -0,0 +1,97 @@
+package src;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * ParseBenchmark
+ * How fast songs get loaded: whole files through Tone.loadSong, and single lines through SongParser.
+ * Songs are generated from a fixed seed so every run parses exactly the same text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ParseBenchmark {
+
+    private static final int LINES_IN_MEMORY = 4096;
+    private static final int[] DURATIONS = {1, 2, 4, 8};
+
+    @Param({"10000", "1000000"})
+    public int lines; // Length of the generated song file
+
+    private File songFile;
+    private String[] sampleLines;
+    private Tone tone;
+    private SongParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(410); // Fixed seed, same song every run
+        Note[] notes = Note.values();
+        songFile = File.createTempFile("bench-song", ".txt");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(songFile.toPath()))) {
+            for (int i = 0; i < lines; i++) {
+                out.println(randomLine(random, notes));
+            }
+        }
+        sampleLines = new String[LINES_IN_MEMORY];
+        for (int i = 0; i < LINES_IN_MEMORY; i++) {
+            sampleLines[i] = randomLine(random, notes);
+        }
+        tone = new Tone(new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false));
+        parser = new SongParser();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        songFile.delete();
+    }
+
+    private static String randomLine(Random random, Note[] notes) {
+        return notes[random.nextInt(notes.length)].name() + " " + DURATIONS[random.nextInt(DURATIONS.length)];
+    }
+
+    /**
+     * Loads, checks and parses the whole generated file, the way Tone.main does.
+     */
+    @Benchmark
+    public void loadSong() {
+        tone.loadSong(songFile.getPath());
+    }
+
+    /**
+     * Checks and parses one line, without any file reading in the way.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(LINES_IN_MEMORY)
+    public void parseLine(Blackhole blackhole) {
+        for (String line : sampleLines) {
+            blackhole.consume(parser.parse(line));
+        }
+    }
+}
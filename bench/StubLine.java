@@ -0,0 +1,144 @@
+package src;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * StubLine
+ * A SourceDataLine that never blocks and throws its audio away, only counting the frames.
+ * Lets the benchmarks measure our side of the output path without a sound card in the way.
+ */
+class StubLine implements SourceDataLine {
+
+    private final AudioFormat format;
+    private long framesWritten = 0;
+    private boolean open = false;
+
+    StubLine(AudioFormat format) {
+        this.format = format;
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open = true;
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        framesWritten += len / format.getFrameSize();
+        return len;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return (int) format.getSampleRate() * format.getFrameSize();
+    }
+
+    @Override
+    public int available() {
+        return getBufferSize();
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) framesWritten;
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return framesWritten;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (framesWritten * 1_000_000L / format.getSampleRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("StubLine has no controls");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
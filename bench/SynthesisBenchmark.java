@@ -0,0 +1,60 @@
+package src;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SynthesisBenchmark
+ * How fast Note samples get made: a whole measure rendered at once (what the Renderer does),
+ * and one block mixed onto a buffer (what the Mixer does for every sounding voice).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SynthesisBenchmark {
+
+    @Param({"A4", "G4S"})
+    public String note;
+
+    private Oscillator oscillator;
+    private final byte[] measure = new byte[Note.SAMPLE_RATE * Note.MEASURE_LENGTH_SEC];
+    private final int[] block = new int[Mixer.BLOCK_FRAMES];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        oscillator = Note.valueOf(note).oscillator();
+    }
+
+    /**
+     * Renders one full measure of the note.
+     */
+    @Benchmark
+    public byte[] renderMeasure() {
+        oscillator.render(measure, 0, measure.length);
+        return measure;
+    }
+
+    /**
+     * Mixes one block of the note onto a mix buffer.
+     */
+    @Benchmark
+    public int[] mixBlock() {
+        oscillator.mix(block, 0, block.length);
+        return block;
+    }
+}
@@ -0,0 +1,129 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AllocationCheck
+ * Proves the playback loop runs without allocating, so a performance can't be interrupted by a GC pause.
+ * The threads of the choir are handed over once, by watch(), while playback is being set up. Once a song is
+ * under way and its first notes have gone out (by then every class is loaded and every note it uses is rendered),
+ * begin() takes a snapshot of how many bytes each of them has allocated. end() takes another at the end of the
+ * song and reports any thread that allocated in between. A steady state performance allocates nothing, so a
+ * single byte on any thread fails the check.
+ * The JVM allocates a little on a thread the first time that thread asks for a method to be fully optimized,
+ * which can land in the middle of a song, so play the song once beforehand to warm up (see Simulator.warmUp).
+ * If that still wasn't enough, a check that isn't the last try says so instead of failing, and the song can
+ * be played again: the JVM's one-off allocations don't come back, anything the choir allocates does.
+ * Uses the HotSpot per-thread allocation counters, so it needs a JVM that has them. Pooled Members are checked
+ * on the pool's threads. Virtual threads have no counters of their own, so virtual Members are reported as
+ * not checked. Flight Recorder events allocate while a recording is running, so check without one.
+ */
+class AllocationCheck {
+
+    static final int WARMUP_EVENTS = 64; // Events played before the check starts, at most half the song
+
+    private final com.sun.management.ThreadMXBean bean;
+    private final List<Thread> threads = new ArrayList<>();
+    private long[] before = new long[0]; // Bytes each thread had allocated at begin(), -1 if it can't be counted
+    private long[] after = new long[0]; // Bytes each thread had allocated at end()
+    private boolean begun = false;
+    private final boolean lastTry; // False if the song will be played again when this check fails
+
+    /**
+     * Constructor for the AllocationCheck class.
+     * @param lastTry False if the song will be played again when this check fails, so it shouldn't warn yet.
+     * @throws UnsupportedOperationException If this JVM can't count allocations per thread.
+     */
+    AllocationCheck(boolean lastTry) {
+        this.lastTry = lastTry;
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean hotSpot)
+                || !hotSpot.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("This JVM can't count allocations per thread");
+        }
+        this.bean = hotSpot;
+        bean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Works out how many events to play before the check starts.
+     * @param events How many events the song has.
+     * @return The event to call begin() at.
+     */
+    static int warmupFor(int events) {
+        return Math.min(WARMUP_EVENTS, events / 2);
+    }
+
+    /**
+     * Sets which threads to check. Call it while setting up, before the song starts, so begin() and end()
+     * have nothing left to allocate.
+     * @param watched The threads of the choir, duplicates and nulls are left out.
+     */
+    void watch(List<Thread> watched) {
+        for (Thread thread : watched) {
+            if (thread != null && !threads.contains(thread)) {
+                threads.add(thread);
+            }
+        }
+        before = new long[threads.size()];
+        after = new long[threads.size()];
+    }
+
+    /**
+     * Starts the check: remembers how much each thread has allocated so far. Allocates nothing.
+     */
+    void begin() {
+        for (int i = 0; i < before.length; i++) {
+            before[i] = bean.getThreadAllocatedBytes(threads.get(i).getId()); // -1 if it has no count
+        }
+        begun = true;
+    }
+
+    /**
+     * Ends the check and prints how much each thread allocated since begin().
+     * @param notes How many notes were played since begin().
+     * @return True if the choir allocated anything, false for a clean performance.
+     */
+    boolean end(long notes) {
+        if (!begun) {
+            return false; // The song was too short to get past the warm up
+        }
+        for (int i = 0; i < after.length; i++) {
+            after[i] = bean.getThreadAllocatedBytes(threads.get(i).getId()); // Every count first, then the report
+        }
+        long total = 0;
+        int counted = 0;
+        StringBuilder culprits = new StringBuilder();
+        StringBuilder unchecked = new StringBuilder();
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] < 0 || after[i] < 0) {
+                unchecked.append(unchecked.length() == 0 ? "" : ", ").append(threads.get(i).getName());
+                continue; // A virtual thread, or one that ended before the song did
+            }
+            counted++;
+            long allocated = after[i] - before[i];
+            if (allocated > 0) {
+                total += allocated;
+                culprits.append(String.format("%n  %s: %d bytes (%.1f per note)", threads.get(i).getName(), allocated,
+                        notes == 0 ? 0.0d : (double) allocated / notes));
+            }
+        }
+        if (total == 0) {
+            System.out.println("Allocation check: nothing allocated on " + counted + " thread(s) over " + notes
+                    + " note(s) after the warm up.");
+        } else if (!lastTry) {
+            System.out.println("Allocation check: " + total + " bytes allocated over " + notes
+                    + " note(s), playing the song again in case the JVM was still warming up.");
+            return true;
+        } else {
+            System.err.println("Warning: Allocation check: " + total + " bytes allocated over " + notes
+                    + " note(s) after the warm up:" + culprits);
+        }
+        if (unchecked.length() > 0) {
+            System.err.println("Warning: Allocation check: " + (before.length - counted)
+                    + " thread(s) have no allocation count and were not checked: " + unchecked);
+        }
+        return total > 0;
+    }
+}
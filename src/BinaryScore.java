@@ -0,0 +1,263 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * BinaryScore
+ * A song compiled into a compact binary file and played straight out of a memory map.
+ * Text songs have to be read, parsed and turned into a BellNote object per note every time they
+ * are played. A binary score is parsed once by compile(), after which load() just maps the file,
+ * checks it, and hands out notes by reading single bytes. No per-note objects, no parsing.
+ * Every different length in the song is written once, in a table, and each note just holds its index
+ * into it, so a note costs two bytes however long or oddly dotted and tied it is.
+ *
+ * File layout (big-endian):
+ *   int    magic    "BELL"
+ *   short  version  currently 4 (version 1 to 3 files, with only whole to eighth notes, still load)
+ *   short  lengths  number of entries in the length table (0 before version 4)
+ *   int    count    number of notes
+ *   long   checksum CRC32 of everything after the header
+ *   int    tempos   number of tempo changes (not there in version 1, whose header ends before it)
+ *   int[tempos * 2] note index and BPM of each tempo change
+ *   int[lengths]    NoteLength ticks of each entry in the length table
+ *   byte[count]     Note ordinal of each note
+ *   byte[count]     Length table index of each note, top bit set if the note is in a chord with the next one
+ */
+public class BinaryScore implements Score {
+
+    public static final String EXTENSION = ".bels"; // File extension for compiled scores.
+    private static final int MAGIC = 0x42454C4C; // "BELL"
+    private static final short VERSION = 4; // Version 2 added tempo changes, version 3 chords, version 4 the length table
+    private static final short OLDEST_VERSION = 1; // Oldest version load() still reads
+    private static final int CHORD_FLAG = 0x80; // Top bit of a length byte
+    private static final int LENGTH_MASK = 0x7F;
+    private static final int MAX_LENGTHS = LENGTH_MASK + 1; // Different lengths one score can hold
+    private static final int HEADER_SIZE = 24;
+    private static final int V1_HEADER_SIZE = 20; // Version 1 had no tempo changes, so no tempo count
+
+    private static final Note[] NOTES = Note.values();
+    // What the length bytes of version 1 to 3 files mean: the lengths there were before the table
+    private static final NoteLength[] OLD_LENGTHS = {NoteLength.WHOLE, NoteLength.HALF, NoteLength.QUARTER, NoteLength.EIGTH};
+
+    private final MappedByteBuffer data; // The whole file, mapped read-only
+    private final int count; // Number of notes
+    private final int notesOffset; // Where the Note ordinals start in the file
+    private final int lengthsOffset; // Where the length table indexes start in the file
+    private final NoteLength[] lengths; // The length table, read out of the file once
+    private final TempoMap tempoMap; // Tempo changes, read out of the file once
+
+    /**
+     * Constructor for the BinaryScore class. Use load() to create one.
+     * @param data The mapped file, already checked.
+     * @param count Number of notes in it.
+     * @param notesOffset Where the Note ordinals start in the file.
+     * @param tempoMap Tempo changes read from the file.
+     * @param lengths The length table read from the file.
+     */
+    private BinaryScore(MappedByteBuffer data, int count, int notesOffset, TempoMap tempoMap, NoteLength[] lengths) {
+        this.data = data;
+        this.count = count;
+        this.notesOffset = notesOffset;
+        this.lengthsOffset = notesOffset + count;
+        this.tempoMap = tempoMap;
+        this.lengths = lengths;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Note noteAt(int index) {
+        return NOTES[data.get(notesOffset + index)];
+    }
+
+    @Override
+    public NoteLength lengthAt(int index) {
+        return lengths[data.get(lengthsOffset + index) & LENGTH_MASK];
+    }
+
+    @Override
+    public boolean chordWithNext(int index) {
+        return (data.get(lengthsOffset + index) & CHORD_FLAG) != 0;
+    }
+
+    @Override
+    public TempoMap tempoMap() {
+        return tempoMap;
+    }
+
+    /**
+     * Compiles a text song into a binary score. Uses the same rules as Tone.loadSong:
+     * if any line is invalid, the errors are printed and no file is written.
+     * @param songFile The text song to compile.
+     * @param outFile The binary score to write.
+     * @return The number of notes compiled, or -1 if the song had errors.
+     * @throws IOException If either file can't be read or written.
+     */
+    public static int compile(File songFile, File outFile) throws IOException {
+        ByteArrayOutputStream notes = new ByteArrayOutputStream();
+        ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+        ByteBuffer tempos = ByteBuffer.allocate(64);
+        int tempoCount = 0;
+        Map<NoteLength, Integer> table = new LinkedHashMap<>(); // Index of each different length, in first use order
+        int errors = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(songFile.toPath(), StandardCharsets.UTF_8)) {
+            SongParser parser = new SongParser();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                BellNote bellNote = parser.parse(line);
+                if (parser.lastTempo() > 0) {
+                    if (tempos.remaining() < 8) {
+                        tempos = ByteBuffer.allocate(tempos.capacity() * 2).put(tempos.flip());
+                    }
+                    tempos.putInt(notes.size()).putInt(parser.lastTempo()); // Applies from the next note on
+                    tempoCount++;
+                } else if (bellNote == null) {
+                    if (errors++ == 0) {
+                        System.err.println("Error compiling song. The following issues were found:");
+                    }
+                    System.err.println("  - " + parser.lastError());
+                } else {
+                    Integer index = table.get(bellNote.length); // Every note of a chord has the same length
+                    if (index == null) {
+                        if (table.size() == MAX_LENGTHS) {
+                            System.err.println("Error compiling song: it has more than " + MAX_LENGTHS + " different note lengths.");
+                            return -1;
+                        }
+                        index = table.size();
+                        table.put(bellNote.length, index);
+                    }
+                    for (int i = 0; i < parser.chordSize(); i++) {
+                        BellNote chordNote = parser.chordNote(i);
+                        notes.write(chordNote.note.ordinal());
+                        lengths.write(index | (chordNote.chordWithNext ? CHORD_FLAG : 0));
+                    }
+                }
+            }
+        }
+        if (errors > 0) {
+            return -1;
+        }
+
+        byte[] noteBytes = notes.toByteArray();
+        byte[] lengthBytes = lengths.toByteArray();
+        byte[] tempoBytes = new byte[tempos.position()];
+        tempos.flip().get(tempoBytes);
+        ByteBuffer tableBytes = ByteBuffer.allocate(4 * table.size());
+        for (NoteLength length : table.keySet()) {
+            tableBytes.putInt(length.ticks());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tempoBytes);
+        crc.update(tableBytes.array());
+        crc.update(noteBytes);
+        crc.update(lengthBytes);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) table.size()).putInt(noteBytes.length).putLong(crc.getValue())
+                .putInt(tempoCount);
+
+        try (OutputStream out = new FileOutputStream(outFile)) {
+            out.write(header.array());
+            out.write(tempoBytes);
+            out.write(tableBytes.array());
+            out.write(noteBytes);
+            out.write(lengthBytes);
+        }
+        return noteBytes.length;
+    }
+
+    /**
+     * Maps a compiled score into memory and checks it is intact.
+     * @param file The binary score to load.
+     * @return The score, ready to be played.
+     * @throws IOException If the file can't be read, or isn't a valid binary score.
+     */
+    public static BinaryScore load(File file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid after close
+        }
+
+        if (data.limit() < V1_HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary score: " + file);
+        }
+        final short version = data.getShort(4);
+        if (version < OLDEST_VERSION || version > VERSION) {
+            throw new IOException("Unsupported binary score version " + version + " in " + file);
+        }
+        final int headerSize = version == 1 ? V1_HEADER_SIZE : HEADER_SIZE;
+        if (data.limit() < headerSize) {
+            throw new IOException("Binary score is truncated or has the wrong size: " + file);
+        }
+        int lengthCount = version < 4 ? 0 : data.getShort(6);
+        int count = data.getInt(8);
+        int tempoCount = version == 1 ? 0 : data.getInt(20);
+        if (count < 0 || tempoCount < 0 || lengthCount < 0 || lengthCount > MAX_LENGTHS
+                || data.limit() != headerSize + 8L * tempoCount + 4L * lengthCount + 2L * count) {
+            throw new IOException("Binary score is truncated or has the wrong size: " + file);
+        }
+        final int tableOffset = headerSize + 8 * tempoCount;
+        final int notesOffset = tableOffset + 4 * lengthCount;
+
+        ByteBuffer payload = data.duplicate().position(headerSize);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != data.getLong(12)) {
+            throw new IOException("Binary score checksum doesn't match, the file is damaged: " + file);
+        }
+
+        // The checksum proves the bytes are what the compiler wrote, this makes sure a newer compiler didn't write them
+        TempoMap tempoMap = new TempoMap();
+        int lastIndex = 0;
+        for (int i = 0; i < tempoCount; i++) {
+            int noteIndex = data.getInt(headerSize + 8 * i);
+            int bpm = data.getInt(headerSize + 8 * i + 4);
+            if (noteIndex < lastIndex || noteIndex > count || !TempoMap.isValidBpm(bpm)) {
+                throw new IOException("Binary score has an invalid tempo change at position " + i + ": " + file);
+            }
+            tempoMap.addChange(noteIndex, bpm);
+            lastIndex = noteIndex;
+        }
+        NoteLength[] lengths = OLD_LENGTHS;
+        if (version >= 4) {
+            lengths = new NoteLength[lengthCount];
+            for (int i = 0; i < lengthCount; i++) {
+                int ticks = data.getInt(tableOffset + 4 * i);
+                if (ticks < 1 || ticks > NoteLength.MAX_TICKS) {
+                    throw new IOException("Binary score has an invalid note length in its table at position " + i + ": " + file);
+                }
+                lengths[i] = NoteLength.of(ticks);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int note = data.get(notesOffset + i);
+            int length = data.get(notesOffset + count + i) & LENGTH_MASK;
+            boolean chord = (data.get(notesOffset + count + i) & CHORD_FLAG) != 0;
+            if (note < 0 || note >= NOTES.length || length >= lengths.length) {
+                throw new IOException("Binary score has an unknown note or length at position " + i + ": " + file);
+            }
+            if (chord && (version < 3 || i == count - 1 || NOTES[note] == Note.REST)) {
+                throw new IOException("Binary score has a broken chord at position " + i + ": " + file);
+            }
+        }
+        return new BinaryScore(data, count, notesOffset, tempoMap, lengths);
+    }
+}
@@ -0,0 +1,58 @@
+package src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * BlockWriteEvent
+ * A Flight Recorder event spanning each block the Mixer writes to the line: it starts as the write starts
+ * and ends once the line has taken the block, so a long one is a write that blocked on a full line.
+ * The Mixer only makes one while a recording has the event turned on, so it allocates nothing otherwise.
+ */
+@Name("bellchoir.BlockWrite")
+@Label("Block Write")
+@Category("Bell Choir")
+@Description("The Mixer wrote one block to the audio line")
+class BlockWriteEvent extends jdk.jfr.Event {
+
+    static final EventType TYPE = EventType.getEventType(BlockWriteEvent.class);
+
+    @Label("Block")
+    @Description("How many blocks the Mixer had written before this one")
+    long block;
+
+    @Label("Frames")
+    int frames;
+
+    @Label("Voices")
+    @Description("How many voices were sounding in the block")
+    int voices;
+
+    @Label("Queued Frames")
+    @Description("How many frames the line still had queued when the write started")
+    int queuedFrames;
+
+    /**
+     * Starts timing a write, if a recording wants it.
+     * @param block How many blocks were written before this one.
+     * @param frames How many frames the block holds.
+     * @param voices How many voices are sounding in it.
+     * @param queuedFrames How many frames the line still has queued.
+     * @return The event, already begun, or null if no recording has it turned on.
+     */
+    static BlockWriteEvent begin(long block, int frames, int voices, int queuedFrames) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        BlockWriteEvent event = new BlockWriteEvent();
+        event.block = block;
+        event.frames = frames;
+        event.voices = voices;
+        event.queuedFrames = queuedFrames;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,186 @@
+package src;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * CaptureLine
+ * A SourceDataLine with no sound card behind it: everything written to it is kept, and writes never block.
+ * Paired with a VirtualClock, it lets a whole performance run through the real Conductor, Members and Mixer
+ * as fast as the CPU allows, and the captured audio can then be checked frame by frame.
+ * For songs too long to keep in memory, the audio can be passed on to a stream as it is written instead.
+ */
+public class CaptureLine implements SourceDataLine {
+
+    private final AudioFormat format;
+    private final OutputStream captured; // Where the audio goes, kept in memory unless told otherwise
+    private volatile long framesWritten = 0; // Written by the Mixer thread only
+    private volatile boolean open = false;
+
+    /**
+     * Constructor for the CaptureLine class.
+     * @param format The format of the audio that will be written.
+     */
+    public CaptureLine(AudioFormat format) {
+        this(format, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Constructor for a CaptureLine that passes the audio on as it is written instead of keeping it.
+     * @param format The format of the audio that will be written.
+     * @param out Where to pass the audio on to.
+     */
+    public CaptureLine(AudioFormat format, OutputStream out) {
+        this.format = format;
+        this.captured = out;
+    }
+
+    /**
+     * Gets everything written so far. Call it once the Mixer has stopped.
+     * @return The captured audio.
+     * @throws IllegalStateException If the audio was passed on to a stream instead of kept.
+     */
+    public byte[] toByteArray() {
+        if (!(captured instanceof ByteArrayOutputStream)) {
+            throw new IllegalStateException("This CaptureLine passes its audio on instead of keeping it");
+        }
+        synchronized (captured) {
+            return ((ByteArrayOutputStream) captured).toByteArray();
+        }
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open = true;
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        synchronized (captured) {
+            try {
+                captured.write(b, off, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        framesWritten += len / format.getFrameSize();
+        return len;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return (int) format.getSampleRate() * format.getFrameSize();
+    }
+
+    @Override
+    public int available() {
+        return getBufferSize();
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) framesWritten;
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return framesWritten;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (framesWritten * 1_000_000L / format.getSampleRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("CaptureLine has no controls");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
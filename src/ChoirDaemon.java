@@ -0,0 +1,263 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ChoirDaemon
+ * Keeps the choir warm and plays song after song without stopping.
+ * A normal run pays for JVM startup, building the wavetable, starting every Member and opening the
+ * line, then throws it all away after one song. The daemon sets all of that up once and then plays
+ * whatever songs are queued up, until it is told to stop.
+ * Songs are queued by dropping files (.txt or .bels) into a queue directory, or by sending their paths,
+ * one per line, to a socket on the loopback address. A song file in the directory is moved into its
+ * "played" subdirectory as soon as it is taken. Dropping a file named STOP into the directory (or sending STOP
+ * to the socket) stops the daemon once the current song is over.
+ * While one song plays, a loader thread already parses, compiles and pre-renders the next one, and
+ * the next song is scheduled to start at the exact frame the current one ends, so back to back songs
+ * play without a gap.
+ */
+public class ChoirDaemon {
+
+    public static final String PLAYED_DIR = "played"; // Subdirectory songs are moved into once taken
+    public static final String STOP_COMMAND = "STOP"; // Sent to the socket instead of a path, stops the daemon
+    public static final String STOP_FILE = "STOP"; // Dropped into the queue directory, stops the daemon without a socket
+    private static final long POLL_MILLIS = 200; // How often the queue directory is checked when there's nothing to play
+
+    private final List<Member> members;
+    private final Mixer mixer;
+    private final int tempoBPM; // Tempo every song starts at
+    private final File queueDir; // Where songs are dropped to be played
+    private final BlockingQueue<File> requested = new LinkedBlockingQueue<>(); // Songs sent to the socket
+    private final BlockingQueue<Prepared> ready = new ArrayBlockingQueue<>(1); // The next song, ready to play
+    private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+    private volatile ServerSocket server = null;
+
+    /**
+     * Constructor for the ChoirDaemon class.
+     * @param members The Members, already started.
+     * @param mixer The Mixer, already started on an open line.
+     * @param tempoBPM The tempo every song starts at.
+     * @param queueDir The directory songs are dropped into.
+     */
+    public ChoirDaemon(List<Member> members, Mixer mixer, int tempoBPM, File queueDir) {
+        this.members = members;
+        this.mixer = mixer;
+        this.tempoBPM = tempoBPM;
+        this.queueDir = queueDir;
+    }
+
+    /**
+     * Also takes songs from a socket on the loopback address. Each line sent is the path of a song to queue,
+     * or STOP_COMMAND to stop the daemon once the current song is over.
+     * @param port The port to listen on.
+     * @throws IOException If the port can't be opened.
+     */
+    public void listen(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread listener = new Thread(this::acceptRequests, "ChoirDaemon-Listener-Thread");
+        listener.setDaemon(true);
+        listener.start();
+        System.out.println("Taking songs on " + server.getLocalSocketAddress() + ".");
+    }
+
+    /**
+     * Plays songs as they are queued, until told to stop. Runs on the calling thread.
+     * @throws InterruptedException If the thread is interrupted, the current song is stopped.
+     */
+    public void run() throws InterruptedException {
+        Thread loader = new Thread(this::loadSongs, "ChoirDaemon-Loader-Thread");
+        loader.setDaemon(true);
+        loader.start();
+        System.out.println("Choir is warm. Waiting for songs in " + queueDir + ".");
+
+        long nextStart = System.nanoTime(); // When the next song should start, the frame the last one ended on
+        try {
+            while (keepRunning.get()) {
+                if (takeStopFile()) {
+                    break;
+                }
+                Prepared song = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (song == null) {
+                    continue;
+                }
+                // Straight on from the last song if it's still playing out, otherwise right now
+                long start = Math.max(nextStart, System.nanoTime());
+                System.out.println("Now playing " + song.file + ".");
+                Conductor conductor = new Conductor(members, song.timeline, mixer);
+                conductor.startAt(start);
+                conductor.start();
+                try {
+                    conductor.join();
+                } catch (InterruptedException e) {
+                    conductor.interrupt();
+                    throw e;
+                }
+                nextStart = start + song.timeline.totalNanos;
+            }
+        } finally {
+            keepRunning.set(false);
+            loader.interrupt();
+            closeServer();
+        }
+    }
+
+    /**
+     * Stops the daemon once the current song is over.
+     */
+    public void stop() {
+        keepRunning.set(false);
+    }
+
+    /**
+     * Looks for a STOP_FILE in the queue directory, and removes it so the next daemon doesn't stop straight away.
+     * @return True if there was one.
+     */
+    private boolean takeStopFile() {
+        try {
+            if (Files.deleteIfExists(queueDir.toPath().resolve(STOP_FILE))) {
+                System.out.println("Found " + STOP_FILE + " in " + queueDir + ", stopping.");
+                return true;
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Couldn't remove " + STOP_FILE + " from " + queueDir + ", stopping anyway: " + e.getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs on the loader thread. Takes the next song, gets it ready to play, and waits for it to be picked up.
+     * Since only one prepared song fits in the hand-off, the loader is always exactly one song ahead.
+     */
+    private void loadSongs() {
+        try {
+            while (keepRunning.get()) {
+                File file = nextSong();
+                if (file == null) {
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+                try {
+                    Score score = Tone.loadScore(file, Mixer.FORMAT);
+                    if (score == null) {
+                        System.err.println("Skipping " + file + ", see the errors above.");
+                        continue;
+                    }
+                    Timeline timeline = Timeline.compile(score, tempoBPM, mixer.getSampleRate());
+                    int unrendered = mixer.prefetch(timeline); // Every note it needs is rendered before it starts
+                    if (unrendered > 0) {
+                        System.out.println(file + " needs more notes than the cache can spare while a song plays, "
+                                + unrendered + " of its notes will be rendered as they are played.");
+                    }
+                    ready.put(new Prepared(file, timeline));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error: Couldn't load " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // The daemon is stopping
+        }
+    }
+
+    /**
+     * Finds the next song to play: anything sent to the socket first, then the first file (by name) in the
+     * queue directory, which is moved into the played directory so it's only taken once.
+     * @return The song file, or null if nothing is queued.
+     */
+    private File nextSong() {
+        File requestedSong = requested.poll();
+        if (requestedSong != null) {
+            return requestedSong;
+        }
+        File[] songs = queueDir.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(".txt") || file.getName().endsWith(BinaryScore.EXTENSION)));
+        if (songs == null || songs.length == 0) {
+            return null;
+        }
+        File first = songs[0];
+        for (File song : songs) {
+            if (song.getName().compareTo(first.getName()) < 0) {
+                first = song;
+            }
+        }
+        try {
+            Path played = Files.createDirectories(queueDir.toPath().resolve(PLAYED_DIR));
+            return Files.move(first.toPath(), played.resolve(first.getName()), StandardCopyOption.REPLACE_EXISTING).toFile();
+        } catch (IOException e) {
+            System.err.println("Error: Couldn't take " + first + " off the queue: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Runs on the listener thread. Queues the song paths sent by each connection, one per line.
+     */
+    private void acceptRequests() {
+        while (keepRunning.get()) {
+            try (Socket client = server.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(client.getOutputStream(), true, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (line.equals(STOP_COMMAND)) {
+                        stop();
+                        out.println("Stopping after the current song.");
+                        return;
+                    }
+                    File song = new File(line);
+                    if (song.isFile()) {
+                        requested.add(song);
+                        out.println("Queued " + song);
+                    } else if (!line.isEmpty()) {
+                        out.println("Error: No such song file: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                if (keepRunning.get()) {
+                    System.err.println("Error: Song request failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void closeServer() {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Already going away, nothing more to do
+            }
+        }
+    }
+
+    /**
+     * Prepared - A song that has been loaded, compiled and pre-rendered, waiting for its turn.
+     */
+    private static class Prepared {
+        final File file;
+        final Timeline timeline;
+
+        Prepared(File file, Timeline timeline) {
+            this.file = file;
+            this.timeline = timeline;
+        }
+    }
+}
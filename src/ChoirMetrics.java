@@ -0,0 +1,173 @@
+package src;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ChoirMetrics
+ * Counters and timing histograms for the Conductor, Members and Mixer, published over JMX.
+ * There is one set of metrics per JVM (INSTANCE). The threads doing the work record straight into
+ * it with LongAdders and LatencyHistograms, which never lock and never allocate, so recording
+ * costs the hot paths next to nothing. All the adding up happens when a JMX client reads a value.
+ */
+public class ChoirMetrics implements ChoirMetricsMBean {
+
+    public static final String OBJECT_NAME = "src:type=ChoirMetrics"; // Where to find the metrics in JMX.
+    public static final ChoirMetrics INSTANCE = new ChoirMetrics();
+
+    final LongAdder notesTriggered = new LongAdder(); // Member.triggerPlay
+    final LongAdder notesDropped = new LongAdder(); // Member or Mixer queue full, or cleared on stop
+    final LongAdder notesLate = new LongAdder(); // Member picked the note up late
+    final LongAdder voicesStolen = new LongAdder(); // VoicePool cut a voice short to make room for a new strike
+    final LatencyHistogram triggerToWrite = new LatencyHistogram(); // Member.triggerPlay to the Mixer's first write
+    final LatencyHistogram lineWrite = new LatencyHistogram(); // Time spent blocked in line.write
+    final LatencyHistogram conductorOvershoot = new LatencyHistogram(); // How late the Conductor woke for each note
+    final LongAdder underruns = new LongAdder(); // Line buffer found empty before a write
+    private volatile long lineBufferFillFrames = 0; // Last seen, written by the Mixer thread only
+    private volatile long lineBufferSizeFrames = 0; // Written by the Mixer thread only
+    private volatile long writeAheadFrames = 0; // Low latency target, written by the Mixer thread only
+
+    private ChoirMetrics() {
+    }
+
+    /**
+     * Publishes INSTANCE on the platform MBean server. Calling it again does nothing.
+     * Metrics are recorded either way, this only makes them visible to JMX clients.
+     */
+    public static synchronized void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Warning: Couldn't publish metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records how full the line's buffer was just before a block was written. Mixer thread only.
+     * @param fillFrames Frames still waiting to be played.
+     * @param sizeFrames Size of the buffer, in frames.
+     */
+    void recordLineBuffer(long fillFrames, long sizeFrames) {
+        lineBufferFillFrames = fillFrames;
+        lineBufferSizeFrames = sizeFrames;
+    }
+
+    /**
+     * Records the write-ahead target in low latency mode. Mixer thread only.
+     * @param targetFrames How many frames the Mixer keeps queued in the line.
+     */
+    void recordWriteAhead(long targetFrames) {
+        writeAheadFrames = targetFrames;
+    }
+
+    @Override
+    public long getNotesTriggered() {
+        return notesTriggered.sum();
+    }
+
+    @Override
+    public long getNotesDropped() {
+        return notesDropped.sum();
+    }
+
+    @Override
+    public long getNotesLate() {
+        return notesLate.sum();
+    }
+
+    @Override
+    public long getVoicesStolen() {
+        return voicesStolen.sum();
+    }
+
+    @Override
+    public double getTriggerToWriteMeanMicros() {
+        return micros(triggerToWrite.meanNanos());
+    }
+
+    @Override
+    public double getTriggerToWriteP99Micros() {
+        return micros(triggerToWrite.percentileNanos(99));
+    }
+
+    @Override
+    public double getTriggerToWriteMaxMicros() {
+        return micros(triggerToWrite.maxNanos());
+    }
+
+    @Override
+    public long getBlocksWritten() {
+        return lineWrite.count();
+    }
+
+    @Override
+    public double getLineWriteMeanMicros() {
+        return micros(lineWrite.meanNanos());
+    }
+
+    @Override
+    public double getLineWriteP99Micros() {
+        return micros(lineWrite.percentileNanos(99));
+    }
+
+    @Override
+    public double getLineWriteMaxMicros() {
+        return micros(lineWrite.maxNanos());
+    }
+
+    @Override
+    public double getConductorOvershootMeanMicros() {
+        return micros(conductorOvershoot.meanNanos());
+    }
+
+    @Override
+    public double getConductorOvershootP99Micros() {
+        return micros(conductorOvershoot.percentileNanos(99));
+    }
+
+    @Override
+    public double getConductorOvershootMaxMicros() {
+        return micros(conductorOvershoot.maxNanos());
+    }
+
+    @Override
+    public long getLineBufferFillFrames() {
+        return lineBufferFillFrames;
+    }
+
+    @Override
+    public long getLineBufferSizeFrames() {
+        return lineBufferSizeFrames;
+    }
+
+    @Override
+    public long getWriteAheadFrames() {
+        return writeAheadFrames;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns.sum();
+    }
+
+    @Override
+    public void reset() {
+        notesTriggered.reset();
+        notesDropped.reset();
+        notesLate.reset();
+        voicesStolen.reset();
+        triggerToWrite.reset();
+        lineWrite.reset();
+        conductorOvershoot.reset();
+        underruns.reset();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0d;
+    }
+}
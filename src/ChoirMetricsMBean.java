@@ -0,0 +1,68 @@
+package src;
+
+/**
+ * ChoirMetricsMBean
+ * What the choir publishes over JMX (jconsole, VisualVM, or any JMX client can read it).
+ * Times are in microseconds, percentiles are accurate to within a factor of two.
+ */
+public interface ChoirMetricsMBean {
+
+    /** @return How many notes the Conductor has triggered. */
+    long getNotesTriggered();
+
+    /** @return How many triggered notes were never played (a Member's or the Mixer's queue was full, or it was stopped first). */
+    long getNotesDropped();
+
+    /** @return How many notes a Member picked up more than one mixer block after they were triggered. */
+    long getNotesLate();
+
+    /** @return How many sounding voices were cut short to make room for a new strike (see VoicePool). */
+    long getVoicesStolen();
+
+    /** @return Mean time from a note being triggered to its first block being written to the line. */
+    double getTriggerToWriteMeanMicros();
+
+    /** @return 99th percentile time from a note being triggered to its first block being written to the line. */
+    double getTriggerToWriteP99Micros();
+
+    /** @return Longest time from a note being triggered to its first block being written to the line. */
+    double getTriggerToWriteMaxMicros();
+
+    /** @return How many blocks the Mixer has written to the line. */
+    long getBlocksWritten();
+
+    /** @return Mean time one line.write call blocked for. */
+    double getLineWriteMeanMicros();
+
+    /** @return 99th percentile time one line.write call blocked for. */
+    double getLineWriteP99Micros();
+
+    /** @return Longest time one line.write call blocked for. */
+    double getLineWriteMaxMicros();
+
+    /** @return Mean time the Conductor woke up after a note's deadline. */
+    double getConductorOvershootMeanMicros();
+
+    /** @return 99th percentile time the Conductor woke up after a note's deadline. */
+    double getConductorOvershootP99Micros();
+
+    /** @return Longest time the Conductor woke up after a note's deadline. */
+    double getConductorOvershootMaxMicros();
+
+    /** @return Frames waiting in the line's buffer just before the last block was written. */
+    long getLineBufferFillFrames();
+
+    /** @return Size of the line's buffer, in frames. */
+    long getLineBufferSizeFrames();
+
+    /** @return How many frames the Mixer keeps queued in the line in low latency mode, 0 otherwise. */
+    long getWriteAheadFrames();
+
+    /** @return How many times the line's buffer had run dry by the time the next block was written. */
+    long getUnderruns();
+
+    /**
+     * Sets every counter and histogram back to zero.
+     */
+    void reset();
+}
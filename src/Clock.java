@@ -0,0 +1,59 @@
+package src;
+
+/**
+ * Clock
+ * Where the Conductor, the Members and the Mixer get the time from, and how they wait for it.
+ * Live performances use SYSTEM, which is System.nanoTime(). A VirtualClock stands in for it when a song is
+ * simulated: its time only moves when the Mixer asks for the next block, and only once every thread has
+ * finished what it was doing, so a whole song runs as fast as the CPU allows with exactly the same
+ * ordering it would have in real time.
+ * Threads tell the clock when they have work in flight with enter() and exit(), so a VirtualClock knows
+ * when it is safe to move on. The system clock moves on its own and ignores them.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new SystemClock(); // Real time, used unless a Mixer is given another clock
+
+    /**
+     * Gets the current time.
+     * @return The time in nanoseconds, counted from an arbitrary origin like System.nanoTime().
+     */
+    long nanoTime();
+
+    /**
+     * Waits until the clock reaches a deadline. Returns straight away if it already has.
+     * @param deadlineNanos The deadline, in nanoTime() terms.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    void sleepUntil(long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Tells the clock some work has started that must finish before time moves on, like a note on its way
+     * from the Conductor to the Mixer. Every enter() needs a matching exit().
+     */
+    default void enter() {
+    }
+
+    /**
+     * Tells the clock a piece of work started with enter() has finished.
+     */
+    default void exit() {
+    }
+
+    /**
+     * Moves the clock forward, waking every thread whose deadline comes first and letting it finish before
+     * moving further. Called by the Mixer before each block. Real time moves on its own, so by default this does nothing.
+     * @param nanos The time to move to.
+     * @throws InterruptedException If the thread is interrupted while waiting for the others.
+     */
+    default void advanceTo(long nanos) throws InterruptedException {
+    }
+
+    /**
+     * Tells whether this is a simulated clock, where notes can be placed on the exact frame they were triggered at.
+     * @return True for a VirtualClock, false for real time.
+     */
+    default boolean isSimulated() {
+        return false;
+    }
+}
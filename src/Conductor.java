@@ -1,34 +1,149 @@
 package src;
 
-import javax.sound.sampled.SourceDataLine;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Conductor
  * The src.Conductor orchestrates the bell choir, telling members when to play their notes.
  * It iterates through the song's notes, finding the corresponding member and instructing them to play.
  * The src.Conductor also manages the tempo of the performance.
+ * Every note gets an absolute deadline measured from the start of the song on the monotonic clock,
+ * so an overshoot on one note is made up on the next instead of piling up over the whole song.
+ * A song that is already loaded (a list of notes or a memory-mapped BinaryScore) is compiled into a
+ * Timeline first, so while the song plays the Conductor only walks arrays. A song streaming in from a
+ * SongStreamer is timed note by note as it arrives instead.
+ * The notes of a chord are triggered as one batch: one wait, one timestamp, then every member at once.
+ * Every wait and every note shows up in a Flight Recorder recording (see SchedulerWakeEvent and NoteTriggerEvent),
+ * and an AllocationCheck can confirm that once a loaded song is under way, nothing in the choir allocates.
  */
 public class Conductor extends Thread {
 
     private final List<Member> members;  // List of all members in the choir.
-    private final int tempoBPM;  // Tempo of the performance in Beats Per Minute. Used to calculate sleep durations
-    private final List<BellNote> songNotes; // List of notes in the song to be played.
-    private final SourceDataLine line; // Audio output line for the members to play on.
+    private final int tempoBPM;  // Tempo the performance starts at, in quarter note Beats Per Minute.
+    private final Timeline timeline; // The compiled song to be played (null when streaming).
+    private final BlockingQueue<BellNote> songQueue; // Notes streaming in from a SongStreamer (null when loaded).
+    private final TempoMap streamTempo; // Tempo changes streaming in alongside songQueue (null when loaded).
+    private final Mixer mixer; // Mixer the members hand their notes to.
+    private final Member[] membersByNote; // Members indexed by Note ordinal, so finding one is a single array read.
+    private final long[] jitterNanos; // How late (or early) each timeline event was triggered compared to its deadline.
+    private long maxJitterNanos = 0; // Largest jitter seen so far (either direction)
+    private long totalJitterNanos = 0; // Sum of all jitter seen so far (either direction)
+    private long conductedNotes = 0; // How many notes have been conducted
+    private final Clock clock; // Where the time comes from, the Mixer's clock
+    private volatile boolean scheduled = false; // Set by startAt(), otherwise the song starts right away
+    private volatile long scheduledStart = 0; // When the song should start (clock time)
+    private int stalls = 0; // How many times a streamed song had to wait on the file
+    private AllocationCheck allocationCheck = null; // Set by checkAllocations(), null to skip the check
+    private boolean allocating = false; // Set if the check found the choir allocating per note
+
+    private static final Note[] NOTES = Note.values();
+
+    // A streamed note arriving this late means the file couldn't keep up, so the clock is restarted from it
+    private static final long STALL_THRESHOLD_NANOS = 20_000_000L;
 
     /**
      * Constructor for the src.Conductor class.
      * @param members List of Member objects in the choir.
-     * @param tempoBPM Tempo of the performance in BPM.
+     * @param tempoBPM Tempo the performance starts at, in BPM.
      * @param songNotes List of notes in the song.
-     * @param line Audio output line.
+     * @param mixer Mixer the members play through.
+     */
+    public Conductor(List<Member> members, int tempoBPM, List<BellNote> songNotes, Mixer mixer) {
+        this(members, tempoBPM, songNotes == null ? null : Score.of(songNotes), mixer);
+    }
+
+    /**
+     * Constructor for a src.Conductor that plays any kind of Score, like a memory-mapped BinaryScore.
+     * @param members List of Member objects in the choir.
+     * @param tempoBPM Tempo the performance starts at, in BPM (the score's tempo map takes over from there).
+     * @param score The notes of the song.
+     * @param mixer Mixer the members play through.
+     */
+    public Conductor(List<Member> members, int tempoBPM, Score score, Mixer mixer) {
+        this(members, tempoBPM, score == null ? null : Timeline.compile(score, tempoBPM, sampleRateOf(mixer)), null, null, mixer);
+    }
+
+    /**
+     * Constructor for a src.Conductor that plays an already compiled Timeline.
+     * @param members List of Member objects in the choir.
+     * @param timeline The compiled song.
+     * @param mixer Mixer the members play through.
+     */
+    public Conductor(List<Member> members, Timeline timeline, Mixer mixer) {
+        this(members, Timeline.DEFAULT_TEMPO_BPM, timeline, null, null, mixer);
+    }
+
+    /**
+     * Constructor for a src.Conductor that plays a song while it is still being read.
+     * @param members List of Member objects in the choir.
+     * @param tempoBPM Tempo the performance starts at, in BPM.
+     * @param songQueue Queue the notes stream in on, ending with SongStreamer.END_OF_SONG.
+     * @param streamTempo Tempo changes found so far, filled in before the notes they apply to are queued.
+     * @param mixer Mixer the members play through.
      */
-    public Conductor(List<Member> members, int tempoBPM, List<BellNote> songNotes, SourceDataLine line) {
+    public Conductor(List<Member> members, int tempoBPM, BlockingQueue<BellNote> songQueue, TempoMap streamTempo,
+                     Mixer mixer) {
+        this(members, tempoBPM, null, songQueue, streamTempo, mixer);
+    }
+
+    private Conductor(List<Member> members, int tempoBPM, Timeline timeline,
+                      BlockingQueue<BellNote> songQueue, TempoMap streamTempo, Mixer mixer) {
         super("Conductor-Thread");
         this.members = members;
         this.tempoBPM = tempoBPM;
-        this.songNotes = songNotes;
-        this.line = line;
+        this.timeline = timeline;
+        this.songQueue = songQueue;
+        this.streamTempo = streamTempo;
+        this.mixer = mixer;
+        this.clock = mixer != null ? mixer.getClock() : Clock.SYSTEM;
+        this.membersByNote = new Member[Note.values().length];
+        if (members != null) {
+            for (Member member : members) {
+                membersByNote[member.getNote().ordinal()] = member;
+            }
+        }
+        this.jitterNanos = new long[timeline == null ? 0 : timeline.size()];
+    }
+
+    /**
+     * Schedules the song to start at an exact time instead of as soon as the thread runs.
+     * Lets one song start on the very frame the one before it ends. Call it before start().
+     * @param startNanos When the first beat should fall (in the Mixer's clock, System.nanoTime() when playing live).
+     */
+    public void startAt(long startNanos) {
+        this.scheduledStart = startNanos;
+        this.scheduled = true;
+    }
+
+    /**
+     * Checks that the choir allocates nothing while a loaded song plays, after its first few notes.
+     * Every note the song uses is rendered before it starts, so no Member has to render one mid-song.
+     * Call it before start(). Streamed songs aren't checked, since parsing them makes a BellNote per note.
+     * @param check The check to run.
+     */
+    void checkAllocations(AllocationCheck check) {
+        check.watch(choirThreads()); // Now, so nothing is left to allocate once the song is under way
+        this.allocationCheck = check;
+    }
+
+    /**
+     * Tells whether the allocation check caught the choir allocating per note.
+     * @return True if it did, false if it didn't or the song wasn't checked.
+     */
+    boolean isAllocating() {
+        return allocating;
+    }
+
+    /**
+     * Starts the Conductor thread. The clock is told the Conductor is busy from here on, so a simulated
+     * clock waits for it instead of running past its first notes before the thread gets going.
+     */
+    @Override
+    public synchronized void start() {
+        clock.enter();
+        super.start();
     }
 
     /**
@@ -38,88 +153,250 @@ public class Conductor extends Thread {
     @Override
     public void run() {
         try {
-            playSong();
+            if (songQueue != null) {
+                streamSong();
+            } else {
+                playSong();
+            }
         } catch (InterruptedException e) {
             System.err.println("Conductor interrupted during playSong. Stopping members.");
             Thread.currentThread().interrupt(); // Reset interrupt status
             // Ensure members are stopped if conductor is interrupted
             stopMembers();
         } finally {
+            clock.exit(); // Nothing more for the clock to wait on
             System.out.println("Conductor finished conducting members.");
         }
     }
 
     /**
      * Plays the song by instructing members to play their notes at the correct times.
+     * Everything about each event was worked out when the Timeline was compiled, so this is just
+     * an array walk: wait for the deadline, trigger every member whose event starts then.
      * @throws InterruptedException If the thread is interrupted during sleep.
      */
     private void playSong() throws InterruptedException {
-        if (songNotes.isEmpty()) {
+        if (timeline == null) {
+            System.out.println("Conductor: The song has null notes. I cannot play this!.");
+            return;
+        }
+        if (timeline.size() == 0) {
             System.out.println("Conductor: I have no notes to play!");
             return;
         }
-        if (songNotes == null) {
-            System.out.println("Conductor: The song has null notes. I cannot play this!.");
+        if (mixer == null || !mixer.isRunning()) {
+            System.err.println("Conductor: Mixer is not available. Cannot play song.");
+            return;
+        }
+
+        final long[] onsetNanos = timeline.onsetNanos;
+        final int[] memberIndexes = timeline.memberIndexes;
+        final int[] lengthFrames = timeline.lengthFrames;
+        final int eventCount = timeline.size();
+        final AllocationCheck check = allocationCheck;
+        int checkFrom = -1; // Where the allocation check started
+        if (check != null) {
+            if (mixer.prefetch(timeline) > 0) { // Nothing left for a Member to render while the check runs
+                System.err.println("Warning: Not every note of the song fits in the note cache, the ones rendered as they play will show up as allocations.");
+            }
+        }
+
+        final long songStart = scheduled ? scheduledStart : clock.nanoTime();
+        int i = 0;
+        while (i < eventCount) {
+            if (check != null && checkFrom < 0 && i >= AllocationCheck.warmupFor(eventCount)) {
+                check.begin();
+                checkFrom = i;
+            }
+
+            // Check for interruption before processing each note
+            if (Thread.currentThread().isInterrupted()) {
+                System.out.println("Conductor detected interruption. Stopping song.");
+                throw new InterruptedException("Conductor interrupted.");
+            }
+
+            // Deadlines are absolute, so time spent on earlier notes doesn't push the rest of the song back.
+            SchedulerWakeEvent wake = SchedulerWakeEvent.begin(i);
+            clock.sleepUntil(songStart + onsetNanos[i]);
+
+            // Every event starting now (a chord) goes out as one batch, stamped with the same time
+            long now = clock.nanoTime();
+            long jitter = (now - songStart) - onsetNanos[i];
+            SchedulerWakeEvent.end(wake, jitter);
+            int batchEnd = i + 1;
+            while (batchEnd < eventCount && onsetNanos[batchEnd] == onsetNanos[i]) {
+                batchEnd++;
+            }
+            for (int e = i; e < batchEnd; e++) {
+                trigger(memberIndexes[e], lengthFrames[e], now, jitter);
+            }
+
+            // Record how far off the deadline the batch actually went out
+            for (; i < batchEnd; i++) {
+                jitterNanos[i] = jitter;
+                recordJitter(jitter);
+            }
+        }
+
+        // Let the last note (or a closing rest) run its full length before calling it done
+        clock.sleepUntil(songStart + timeline.totalNanos);
+        long endErrorNanos = (clock.nanoTime() - songStart) - timeline.totalNanos;
+        if (checkFrom >= 0) {
+            allocating = check.end(eventCount - checkFrom);
+        }
+        reportTiming(endErrorNanos);
+    }
+
+    /**
+     * Plays the song as it streams in, starting as soon as the first note has been parsed.
+     * Notes aren't known ahead of time here, so each one is timed as it arrives, using the same
+     * tempo math as Timeline.compile().
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void streamSong() throws InterruptedException {
+        if (mixer == null || !mixer.isRunning()) {
+            System.err.println("Conductor: Mixer is not available. Cannot play song.");
             return;
         }
-        if (line == null || !line.isOpen()) {
-            System.err.println("Conductor: Audio line is not available. Cannot play song.");
+
+        BellNote bellNote = songQueue.take(); // Wait for the first note
+        if (bellNote == SongStreamer.END_OF_SONG) {
+            System.out.println("Conductor: I have no notes to play!");
             return;
         }
 
-        for (BellNote bellNote : songNotes) {
+        final int sampleRate = mixer.getSampleRate(); // Note lengths are in the line's frames
+        long songStart = clock.nanoTime();
+        double seconds = 0.0d; // Where the current note starts, kept in seconds so rounding never adds up
+        int bpm = tempoBPM;
+        int noteIndex = 0;
+        int nextChange = 0;
+        boolean inChord = false; // The previous note was chordWithNext, so this one goes out with it
+        long triggerNanos = 0; // When the current batch of notes went out
+        long jitter = 0; // How far off its deadline the current batch went out
+        while (bellNote != SongStreamer.END_OF_SONG) {
             // Check for interruption before processing each note
             if (Thread.currentThread().isInterrupted()) {
                 System.out.println("Conductor detected interruption. Stopping song.");
                 throw new InterruptedException("Conductor interrupted.");
             }
 
-            Note note = bellNote.note;
-            NoteLength noteLength = bellNote.length;
+            while (nextChange < streamTempo.size() && streamTempo.noteIndexAt(nextChange) <= noteIndex) {
+                bpm = streamTempo.bpmAt(nextChange++);
+            }
+            long onsetFrame = Math.round(seconds * sampleRate);
+            double noteEnd = seconds + Timeline.secondsFor(bellNote.length, bpm);
+            int frames = (int) (Math.round(noteEnd * sampleRate) - onsetFrame);
+            long onsetNanos = Timeline.framesToNanos(onsetFrame, sampleRate);
+            if (!bellNote.chordWithNext) {
+                seconds = noteEnd; // The next note of a chord starts where this one does
+            }
 
-            if (note == Note.REST) { // Handle rests explicitly
-                // Just wait for the duration of the rest
-            } else {
-                // Find the member who should play the current note.
-                Member targetMember = null;
-                for (Member member : members) {
-                    if (member.getNote() == note) {
-                        targetMember = member;
-                        break;
-                    }
+            if (!inChord) {
+                SchedulerWakeEvent wake = SchedulerWakeEvent.begin(noteIndex);
+                clock.sleepUntil(songStart + onsetNanos);
+                triggerNanos = clock.nanoTime();
+                jitter = (triggerNanos - songStart) - onsetNanos;
+                SchedulerWakeEvent.end(wake, jitter);
+                if (jitter > STALL_THRESHOLD_NANOS) {
+                    // The file couldn't keep up. Pick the beat up again from here instead of rushing to catch up.
+                    songStart += jitter;
+                    jitter = 0;
+                    stalls++;
                 }
+            }
+            recordJitter(jitter);
 
-                if (targetMember != null) {
-                    // Tell the member thread to play the note.
-                    // This call returns immediately, doesn't wait for the note to finish playing.
-                    targetMember.triggerPlay(noteLength, line);
-                } else {
-                    System.err.println("Error: Conductor found no member for note " + note);
-                }
+            if (bellNote.note != Note.REST) { // Rests just leave a gap before the next note
+                trigger(bellNote.note.ordinal(), frames, triggerNanos, jitter);
             }
+            inChord = bellNote.chordWithNext;
+            bellNote = songQueue.take(); // Fetch the next note before waiting, so it is ready on time
+            noteIndex++;
+        }
+
+        long totalNanos = Timeline.framesToNanos(Math.round(seconds * sampleRate), sampleRate);
+        clock.sleepUntil(songStart + totalNanos);
+        long endErrorNanos = (clock.nanoTime() - songStart) - totalNanos;
+        reportTiming(endErrorNanos);
+    }
+
+    /**
+     * Tells the right member to play a note.
+     * @param memberIndex Which member plays it (the Note ordinal).
+     * @param lengthFrames How many frames the note sounds for.
+     * @param triggerNanos When the note went out, shared by every note of a chord.
+     * @param jitter How far past its deadline the note went out.
+     */
+    private void trigger(int memberIndex, int lengthFrames, long triggerNanos, long jitter) {
+        Member targetMember = membersByNote[memberIndex];
+        NoteTriggerEvent.emit(NOTES[memberIndex], lengthFrames, jitter);
+        if (targetMember != null) {
+            // Tell the member to play the note.
+            // This call returns immediately, doesn't wait for the note to finish playing.
+            targetMember.triggerPlay(lengthFrames, triggerNanos, mixer);
+        } else {
+            System.err.println("Error: Conductor found no member for note " + NOTES[memberIndex]);
+        }
+    }
+
+    /**
+     * Adds one note's jitter to the running timing stats.
+     * @param jitter How late (or early, if negative) the note went out, in nanoseconds.
+     */
+    private void recordJitter(long jitter) {
+        maxJitterNanos = Math.max(maxJitterNanos, Math.abs(jitter));
+        totalJitterNanos += Math.abs(jitter);
+        conductedNotes++;
+        ChoirMetrics.INSTANCE.conductorOvershoot.record(jitter);
+    }
 
-            // Conductor waits for the note's duration before signaling the next note
-            // This determines the rhythm/tempo of the song.
-            try {
-                long sleepTime = getBeatLengthMs(noteLength);
-                if (sleepTime > 0) {
-                    Thread.sleep(sleepTime);
-                } else if (sleepTime < 0) {
-                    System.err.println("Warning: Negative sleep time calculated for " + noteLength);
+    /**
+     * Gets every thread playing the song: the Conductor, the Mixer, and each Member's own thread,
+     * or the threads of the pool it runs on.
+     */
+    private List<Thread> choirThreads() {
+        List<Thread> threads = new ArrayList<>();
+        threads.add(this);
+        threads.add(mixer);
+        if (members != null) {
+            for (Member member : members) {
+                threads.add(member.getThread());
+                if (member.getPool() instanceof MemberPool pool) {
+                    threads.addAll(pool.getThreads());
                 }
-            } catch (IllegalArgumentException e) {
-                System.err.println("Error: Invalid note length detected for " + note);
             }
         }
+        return threads;
+    }
+
+    /**
+     * Gets the sample rate a song is compiled at for a Mixer: the line's, since note lengths are in its frames.
+     */
+    private static int sampleRateOf(Mixer mixer) {
+        return mixer != null ? mixer.getSampleRate() : Note.SAMPLE_RATE;
+    }
+
+    /**
+     * Prints a short summary of how closely the notes hit their deadlines.
+     * @param endErrorNanos How far off the end of the song landed.
+     */
+    private void reportTiming(long endErrorNanos) {
+        long meanJitter = conductedNotes == 0 ? 0 : totalJitterNanos / conductedNotes;
+        System.out.printf("Conductor timing: mean jitter %.3f ms, max jitter %.3f ms, song ended %.3f ms off.%n",
+                meanJitter / 1e6, maxJitterNanos / 1e6, endErrorNanos / 1e6);
+        if (stalls > 0) {
+            System.err.println("Warning: The song file couldn't keep up " + stalls + " time(s), the beat was picked up again each time.");
+        }
     }
 
     /**
-     * Calculates the duration of a beat in milliseconds based on the note length.
-     * @param noteLength The length of the note.
-     * @return The duration of the beat in milliseconds.
+     * Gets how late (or early, if negative) each note was triggered compared to its deadline.
+     * Only kept for songs that were loaded up front, a streamed song could be any length.
+     * @return Per-event jitter in nanoseconds, in Timeline order.
      */
-    private long getBeatLengthMs(NoteLength noteLength) {
-        return noteLength.timeMs();
+    public long[] getJitterNanos() {
+        return jitterNanos.clone();
     }
 
     public void stopMembers() {
@@ -0,0 +1,90 @@
+package src;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * ExecutionMode enum - How the Members of the choir get their CPU time.
+ * PLATFORM gives every Member its own operating system thread, like the original choir.
+ * VIRTUAL gives every Member its own virtual thread, which costs almost nothing while it waits.
+ * POOLED gives Members no thread at all, they run as short tasks on a shared pool only when they have notes.
+ */
+enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL,
+    POOLED;
+
+    // Thread.ofVirtual() only exists on newer JVMs, so it is looked up once instead of linked against
+    private static final MethodHandle OF_VIRTUAL; // Thread.ofVirtual()
+    private static final MethodHandle BUILDER_NAME; // Thread.Builder.name(String)
+    private static final MethodHandle BUILDER_UNSTARTED; // Thread.Builder.unstarted(Runnable)
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle builderName = null;
+        MethodHandle builderUnstarted = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualClass));
+            builderName = lookup.findVirtual(builderClass, "name", MethodType.methodType(builderClass, String.class));
+            builderUnstarted = lookup.findVirtual(builderClass, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null; // Older JVM, no virtual threads
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+    }
+
+    /**
+     * Parses a mode from the command line, ignoring case.
+     * @param value The mode name.
+     * @return The matching mode, or null if there isn't one.
+     */
+    static ExecutionMode parse(String value) {
+        for (ExecutionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether this JVM can create virtual threads.
+     * @return True if Thread.ofVirtual() is available.
+     */
+    static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an unstarted thread for a Member in this mode. Not used in POOLED mode.
+     * @param name The name of the thread.
+     * @param task What the thread runs.
+     * @return The new, unstarted thread.
+     */
+    Thread newThread(String name, Runnable task) {
+        if (this == VIRTUAL && OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (Throwable e) {
+                System.err.println("Warning: Could not create a virtual thread, using a platform thread. " + e.getMessage());
+            }
+        }
+        return new Thread(task, name);
+    }
+
+    /**
+     * Creates the shared pool POOLED Members run on, one thread per core (see MemberPool).
+     * @param threadName The name of the pool's threads.
+     * @return The pool, with every thread already started.
+     */
+    static MemberPool newMemberPool(String threadName) {
+        return new MemberPool(threadName);
+    }
+}
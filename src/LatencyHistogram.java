@@ -0,0 +1,110 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram
+ * Counts how long something took, in power-of-two buckets of nanoseconds.
+ * Recording is a few atomic adds on arrays made up front, so it is safe to call from any number
+ * of threads at once and never allocates, even on the audio and timing hot paths.
+ * Percentiles are only as exact as the bucket they land in (within a factor of two), which is
+ * plenty to tell a healthy 50 microseconds from a broken 20 milliseconds.
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 64; // Bucket b holds values from 2^(b-1) up to (not including) 2^b nanoseconds
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder(); // Number of values recorded
+    private final LongAdder total = new LongAdder(); // Sum of all values recorded
+    private final AtomicLong max = new AtomicLong(); // Largest value recorded
+
+    /**
+     * Records one value. Negative values (early instead of late) count as zero.
+     * @param nanos The value, in nanoseconds.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value)); // 0 lands in bucket 0
+        count.increment();
+        total.add(value);
+        long seen;
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+            Thread.onSpinWait(); // Someone else raised it first, look again
+        }
+    }
+
+    /**
+     * Gets how many values have been recorded.
+     * @return The number of values.
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of every value recorded.
+     * @return The total, in nanoseconds.
+     */
+    long totalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Gets the average value recorded.
+     * @return The mean, in nanoseconds, or 0 if nothing has been recorded.
+     */
+    long meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    /**
+     * Gets the largest value recorded.
+     * @return The maximum, in nanoseconds.
+     */
+    long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile from the buckets.
+     * @param percentile Which percentile, between 0 and 100.
+     * @return The upper edge of the bucket the percentile falls in (never more than the max), in nanoseconds.
+     */
+    long percentileNanos(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS]; // Only allocates when read, never when recording
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0d * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank && snapshot[b] > 0) {
+                long upperEdge = b >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+                return Math.min(upperEdge, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
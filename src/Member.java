@@ -1,22 +1,37 @@
 package src;
 
-import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Member
  * Represents a member of the bell choir, responsible for playing a specific note.
- * Each member has a name, a note, and a note length.
+ * Each member has a name, a note, and a queue of notes waiting to be played.
  * Members play their assigned note when instructed by the src.Conductor.
+ * A Member either gets a thread of its own (platform or virtual) that parks between notes,
+ * or runs as a short task on a shared pool whenever it has notes waiting (see ExecutionMode).
  */
-public class Member extends Thread {
+public class Member implements Runnable {
+
+    public static final int QUEUE_CAPACITY = 16; // How many triggers can wait before new ones are dropped.
+    // A note taken off the queue more than one mixer block after its trigger is counted as late (without a mixer, at the Note sample rate)
+    public static final long LATE_THRESHOLD_NANOS = Mixer.BLOCK_FRAMES * 1_000_000_000L / Note.SAMPLE_RATE;
 
     private final Note note; // The note assigned to the Member.
     private final String name; // Name of the Member.
-    private final Object lock = new Object(); // Dedicated lock for wait/notify
-    private volatile NoteLength noteToPlay = null; // The note length to play currently (volatile for visibility)
-    private volatile SourceDataLine audioLine = null; // The line to write to (volatile for visibility)
+    private final NoteQueue pendingNotes = new NoteQueue(QUEUE_CAPACITY); // Triggers waiting to be played
+    private volatile Mixer mixer = null; // The mixer to hand the note to (volatile for visibility)
     private final AtomicBoolean keepRunning = new AtomicBoolean(true); // Use AtomicBoolean for safer flag setting
+    private final LongAdder droppedNotes = new LongAdder(); // Triggers that never got played
+    private final LongAdder lateNotes = new LongAdder(); // Triggers that got played, but late
+    private volatile Thread thread = null; // Dedicated thread in PLATFORM and VIRTUAL mode
+    private Executor pool = null; // Shared pool in POOLED mode
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false); // POOLED mode: a drain task is queued or running
+    private final Runnable drainTask = this::drain; // POOLED mode: made once, so scheduling a drain doesn't make a new one
+    private final CountDownLatch finished = new CountDownLatch(1); // Released once the Member has stopped for good
 
     /**
      * Constructor for the Member class.
@@ -25,7 +40,6 @@ public class Member extends Thread {
      * @param note The note the member is assigned to play.
      */
     public Member(String name, Note note) {
-        super(name + "-Thread"); // Gives the thread a descriptive name
         this.name = name;
         this.note = note;
     }
@@ -40,102 +54,239 @@ public class Member extends Thread {
     }
 
     /**
-     * Overrides the run method of the Thread class.
-     * This method is executed when the thread starts.
+     * Gets the name of the member's thread, used in log messages.
+     *
+     * @return The thread name of the member.
+     */
+    public String getName() {
+        return name + "-Thread";
+    }
+
+    /**
+     * Starts the Member in the given execution mode.
+     *
+     * @param mode How the Member gets its CPU time.
+     * @param pool The shared pool to run on in POOLED mode, ignored otherwise.
+     */
+    public void start(ExecutionMode mode, Executor pool) {
+        if (mode == ExecutionMode.POOLED) {
+            this.pool = pool; // Nothing to start, a task is submitted whenever a note arrives
+        } else {
+            Thread t = mode.newThread(getName(), this); // Gives the thread a descriptive name
+            this.thread = t;
+            t.start(); // START THE THREAD!
+        }
+    }
+
+    /**
+     * Runs on the Member's dedicated thread (PLATFORM and VIRTUAL mode).
+     * Plays notes as they arrive and parks in between until told to stop.
      */
     @Override
     public void run() {
         while (keepRunning.get()) {
-            NoteLength currentNoteLength = null;
-            SourceDataLine currentLine = null;
-            // -- Begin Synchronized block --
-            synchronized (lock) {
-                // Wait while there's no note assigned AND we should keep running
-                while (noteToPlay == null && keepRunning.get()) {
-                    try {
-                        lock.wait(); // Release lock and wait for notification
-                    } catch (InterruptedException e) {
-                        System.err.println(getName() + " interrupted while waiting. Exiting.");
-                        keepRunning.set(false); // Ensure loop termination on interrupt
-                        Thread.currentThread().interrupt(); // Re-set interrupt status
-                        break; // Exit inner wait loop
-                    }
+            // Park while there's no note waiting, the Conductor unparks us when it queues one
+            if (pendingNotes.isEmpty()) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    System.err.println(getName() + " interrupted while waiting. Exiting.");
+                    keepRunning.set(false); // Ensure loop termination on interrupt
+                    Thread.currentThread().interrupt(); // Re-set interrupt status
                 }
+                continue; // Re-check keepRunning and the queue
+            }
+            playNext();
+        }
+        finish();
+    }
 
-                // If woken up, check if it should still run and if there's a note
-                if (!keepRunning.get()) {
-                    break; // Exit the main while loop
-                }
+    /**
+     * Runs as a task on the shared pool (POOLED mode).
+     * Plays every note that is waiting and then gives the pool thread back.
+     * Only one drain runs at a time per Member, so the note queue still has a single consumer.
+     */
+    private void drain() {
+        do {
+            while (keepRunning.get() && !pendingNotes.isEmpty()) {
+                playNext();
+            }
+            if (!keepRunning.get()) {
+                finish();
+                return;
+            }
+            drainScheduled.set(false);
+            // A note may have arrived after the queue looked empty but before the flag was cleared,
+            // or stop was called while this drain still held the flag, so look once more
+        } while ((!pendingNotes.isEmpty() || !keepRunning.get()) && drainScheduled.compareAndSet(false, true));
+    }
 
-                if (noteToPlay != null) {
-                    // Grab the details needed to play *before* resetting
-                    currentNoteLength = this.noteToPlay;
-                    currentLine = this.audioLine;
+    /**
+     * Makes sure a drain task is queued on the pool, unless one is already queued or running.
+     */
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            pool.execute(drainTask);
+        }
+    }
 
-                    // Reset the state *inside* the synchronized block
-                    // so the conductor doesn't overwrite before we process
-                    this.noteToPlay = null;
-                    this.audioLine = null;
-                }
-            }
+    /**
+     * Takes the note at the front of the queue and hands it to the mixer.
+     */
+    private void playNext() {
+        int lengthFrames = pendingNotes.peekLengthFrames();
+        long triggeredAt = pendingNotes.peekTriggerNanos();
+        pendingNotes.remove();
+        Mixer currentMixer = this.mixer;
+        Clock clock = clockOf(currentMixer);
 
-            // --- Perform the actual work *outside* the synchronized block ---
-            if (currentNoteLength != null && currentLine != null) {
-                try {
-                    final int ms = Math.min(currentNoteLength.timeMs(), Note.MEASURE_LENGTH_SEC * 1000);
-                    final int length = Note.SAMPLE_RATE * ms / 1000;
-                    // Ensure the sample data isn't null or invalid.txt before writing
-                    byte[] sampleData = note.sample();
-                    if (sampleData != null) {
-                        currentLine.write(sampleData, 0, length); // Write the note's audio data
-                    } else {
-                        System.err.println("Error: Sample data is null for note " + note + " in " + getName());
-                    }
-                } catch (Exception e) { // Catch broader exceptions during audio playback
-                    System.err.println("It looks like " + getName() + " went missing!\n " +
-                            "I'm just playing, I don't actually know what happened. Here's the message though: " + e.getMessage());
-                }
+        long lateThreshold = currentMixer != null ? currentMixer.getBlockNanos() : LATE_THRESHOLD_NANOS;
+        if (clock.nanoTime() - triggeredAt > lateThreshold) {
+            lateNotes.increment();
+            ChoirMetrics.INSTANCE.notesLate.increment();
+        }
+
+        // --- Perform the actual work ---
+        if (currentMixer != null) {
+            try {
+                currentMixer.play(note, lengthFrames, triggeredAt); // Hand the note to the mixer, it synthesizes it as it plays
+            } catch (Exception e) { // Catch broader exceptions during audio playback
+                System.err.println("It looks like " + getName() + " went missing!\n " +
+                        "I'm just playing, I don't actually know what happened. Here's the message though: " + e.getMessage());
             }
         }
+        clock.exit(); // The note has reached the Mixer
+    }
+
+    /**
+     * Wraps up once the Member has been told to stop.
+     */
+    private void finish() {
+        // Anything still queued when we stop never gets played, so count it
+        int cleared = pendingNotes.clear();
+        Clock clock = clockOf(mixer);
+        for (int i = 0; i < cleared; i++) {
+            clock.exit(); // Never reaching the Mixer, so stop waiting on them
+        }
+        droppedNotes.add(cleared);
+        ChoirMetrics.INSTANCE.notesDropped.add(cleared);
+        finished.countDown();
     }
 
     /**
      * Called by the Conductor to signal this Member to play its note.
+     * Only the Conductor thread may call this, the note queue has a single producer.
      *
-     * @param length The length of the note to play.
-     * @param line   The audio line to write to.
+     * @param lengthFrames How many frames the note sounds for.
+     * @param mixer        The mixer to hand the note to.
      */
-    public void triggerPlay(NoteLength length, SourceDataLine line) {
-        synchronized (lock) {
-            if (!keepRunning.get()) return; // Don't accept new notes if trying to stop
+    public void triggerPlay(int lengthFrames, Mixer mixer) {
+        triggerPlay(lengthFrames, clockOf(mixer).nanoTime(), mixer);
+    }
 
-            this.noteToPlay = length;
-            this.audioLine = line;
-            lock.notify();
+    /**
+     * Called by the Conductor to signal this Member to play its note, stamped with a trigger time
+     * the Conductor took itself, so every note of a chord carries the same one.
+     * Only the Conductor thread may call this, the note queue has a single producer.
+     *
+     * @param lengthFrames How many frames the note sounds for.
+     * @param triggerNanos When the note was triggered (System.nanoTime()).
+     * @param mixer        The mixer to hand the note to.
+     */
+    public void triggerPlay(int lengthFrames, long triggerNanos, Mixer mixer) {
+        ChoirMetrics.INSTANCE.notesTriggered.increment();
+        if (!keepRunning.get()) {
+            // Don't accept new notes if trying to stop, but count them like any other trigger that never gets played
+            droppedNotes.increment();
+            ChoirMetrics.INSTANCE.notesDropped.increment();
+            return;
         }
+
+        this.mixer = mixer;
+        Clock clock = clockOf(mixer);
+        clock.enter(); // The note is on its way to the Mixer, time can't move on without it
+        if (!pendingNotes.offer(lengthFrames, triggerNanos)) {
+            clock.exit();
+            droppedNotes.increment(); // Queue is full, the Member has fallen too far behind
+            ChoirMetrics.INSTANCE.notesDropped.increment();
+        }
+        wake();
+    }
+
+    /**
+     * Gets the clock the Mixer runs on, or real time if there's no Mixer yet.
+     */
+    private static Clock clockOf(Mixer mixer) {
+        return mixer != null ? mixer.getClock() : Clock.SYSTEM;
     }
 
     /**
      * Signals the Member thread to stop running.
      */
     public void stopPlaying() {
-        synchronized (lock) {
-            keepRunning.set(false);
-            noteToPlay = null; // Ensure no pending note is played
-            lock.notify(); // Wake up the thread so it can check keepRunning and exit
+        keepRunning.set(false);
+        wake(); // Wake up the Member so it can check keepRunning and exit
+    }
+
+    /**
+     * Wakes the Member up: unparks its thread, or queues a drain task on the pool.
+     */
+    private void wake() {
+        if (pool != null) {
+            scheduleDrain();
+        } else {
+            LockSupport.unpark(thread);
         }
     }
 
+    /**
+     * Gets the Member's own thread.
+     *
+     * @return The thread, or null in POOLED mode (or before start).
+     */
+    Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Gets the shared pool the Member runs on.
+     *
+     * @return The pool, or null unless it runs in POOLED mode.
+     */
+    Executor getPool() {
+        return pool;
+    }
+
+    /**
+     * Gets how many triggers this Member never played, because its queue was full or it was stopped first.
+     *
+     * @return The number of dropped notes.
+     */
+    public long getDroppedNotes() {
+        return droppedNotes.sum();
+    }
+
+    /**
+     * Gets how many triggers this Member played more than one mixer block after they arrived.
+     *
+     * @return The number of late notes.
+     */
+    public long getLateNotes() {
+        return lateNotes.sum();
+    }
+
     /**
      * This method  called from the main thread *after* Conductor.join()
-     * to ensure the member thread itself has terminated cleanly.
+     * to ensure the member itself has terminated cleanly, whatever mode it runs in.
      */
     public void joinThread() {
+        if (thread == null && pool == null) {
+            return; // Never started, nothing to wait for
+        }
         try {
-            this.join();
+            finished.await();
         } catch (InterruptedException e) {
             System.err.println(getName() + " interrupted while being joined.");
             Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
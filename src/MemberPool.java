@@ -0,0 +1,173 @@
+package src;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MemberPool
+ * The shared pool POOLED Members run on, one thread per core.
+ * The JDK's thread pools wait for work on a blocking queue, and waiting there allocates a node every time a
+ * thread goes idle, which a choir does between almost every note. Here idle threads just park, and tasks wait
+ * in a fixed ring of slots that any thread can add to or take from without a lock, so running a task allocates
+ * nothing. Each Member has at most one drain task waiting at a time, so the ring has room for every Member and
+ * never fills up.
+ * Every thread is started up front and kept, so the AllocationCheck can count what the Members allocate on them
+ * just like it does for Members with threads of their own.
+ */
+class MemberPool implements Executor {
+
+    private final Thread[] threads;
+    private final AtomicIntegerArray idle; // 1 while a thread is parked (or about to), waiting for a task
+    private final AtomicReferenceArray<Runnable> slots; // Waiting tasks
+    private final AtomicLongArray sequences; // Which turn each slot is on, so adding and taking never collide
+    private final int mask; // Capacity - 1, capacity is always a power of two
+    private final AtomicLong head = new AtomicLong(); // Next slot to take
+    private final AtomicLong tail = new AtomicLong(); // Next slot to fill
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    /**
+     * Constructor for the MemberPool class. Starts every thread right away.
+     * @param threadName The name of the pool's threads.
+     */
+    MemberPool(String threadName) {
+        int capacity = Integer.highestOneBit(Math.max(1, Note.values().length - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.threads = new Thread[Runtime.getRuntime().availableProcessors()];
+        this.idle = new AtomicIntegerArray(threads.length);
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> work(index), threadName);
+            threads[i].setDaemon(true); // Never keep the JVM alive just for the pool
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Queues a task and wakes an idle thread to run it. If every thread is busy, the first to finish picks it up.
+     * @param task What to run.
+     * @throws RejectedExecutionException If the pool was shut down, or more tasks are waiting than there are Members.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (!running.get() || !offer(task)) {
+            throw new RejectedExecutionException("The Member pool can't take another task");
+        }
+        for (int i = 0; i < threads.length; i++) {
+            if (idle.compareAndSet(i, 1, 0)) {
+                LockSupport.unpark(threads[i]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the pool once every task already queued has run. Returns right away.
+     */
+    void shutdown() {
+        running.set(false);
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Gets every thread in the pool.
+     * @return The pool's threads.
+     */
+    List<Thread> getThreads() {
+        return List.of(threads);
+    }
+
+    /**
+     * Runs on each of the pool's threads: takes tasks until there are none, then parks until woken.
+     */
+    private void work(int index) {
+        while (true) {
+            Runnable task = poll();
+            if (task != null) {
+                run(task);
+                continue;
+            }
+            if (!running.get()) {
+                return; // Shut down, and nothing is left to run
+            }
+            idle.set(index, 1);
+            task = poll(); // A task may have been queued just before this thread said it was idle
+            if (task != null) {
+                idle.set(index, 0);
+                run(task);
+                continue;
+            }
+            LockSupport.park(this);
+            idle.set(index, 0);
+        }
+    }
+
+    /**
+     * Runs a task, so a task that throws only loses itself, not the thread.
+     */
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("A Member pool task failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a task to the ring. Safe from any number of threads at once.
+     * @return False if the ring was full.
+     */
+    private boolean offer(Runnable task) {
+        while (true) {
+            long t = tail.get();
+            int slot = (int) t & mask;
+            long turn = sequences.get(slot) - t;
+            if (turn == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots.set(slot, task);
+                    sequences.set(slot, t + 1); // Now it can be taken
+                    return true;
+                }
+            } else if (turn < 0) {
+                return false; // The slot still holds a task from a lap ago
+            }
+            // Another thread got this slot first, try the next one
+        }
+    }
+
+    /**
+     * Takes the oldest task from the ring. Safe from any number of threads at once.
+     * @return The task, or null if the ring was empty.
+     */
+    private Runnable poll() {
+        while (true) {
+            long h = head.get();
+            int slot = (int) h & mask;
+            long turn = sequences.get(slot) - (h + 1);
+            if (turn == 0) {
+                if (head.compareAndSet(h, h + 1)) {
+                    Runnable task = slots.get(slot);
+                    slots.set(slot, null);
+                    sequences.set(slot, h + mask + 1); // Free for the next lap
+                    return task;
+                }
+            } else if (turn < 0) {
+                return null; // Nothing has been added here yet
+            }
+            // Another thread took this slot first, try the next one
+        }
+    }
+}
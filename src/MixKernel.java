@@ -0,0 +1,187 @@
+package src;
+
+/**
+ * MixKernel
+ * The inner loops of mixing: shaping a voice with its envelope, adding it onto a mix buffer, and
+ * clipping the mix down to 8 bit samples. With many voices sounding these run for every voice on
+ * every block, so they are kept as plain counted loops over primitive arrays with no branches,
+ * calls or table lookups inside. That is the shape HotSpot's C2 compiler turns into SIMD
+ * instructions by itself, and it is still a tight scalar loop anywhere that doesn't happen.
+ *
+ * Every note gets a short linear fade in (attack) and fade out (release), so it starts and stops
+ * without the click of a wave being cut off mid cycle. Gains are fixed point, UNITY_GAIN is full volume.
+ */
+final class MixKernel {
+
+    static final int GAIN_BITS = 15;
+    static final int UNITY_GAIN = 1 << GAIN_BITS;
+    static final int ATTACK_FRAMES = Note.SAMPLE_RATE / 200; // About 5 ms
+    static final int RELEASE_FRAMES = Note.SAMPLE_RATE / 100; // About 10 ms
+
+    private MixKernel() {
+        // Only static helpers here
+    }
+
+    /**
+     * Adds one block of a voice onto the mix, shaped by the voice's envelope.
+     * The block is split where the envelope changes from attack to sustain to release,
+     * so each piece is one straight line of gain and runs through a single simple loop.
+     * @param mix The buffer to add to.
+     * @param mixOffset Where in the mix buffer to start.
+     * @param voice The voice's raw samples for this block.
+     * @param frames How many samples to add.
+     * @param position How far into the note the block starts, in frames.
+     * @param length The note's full length, in frames.
+     */
+    static void mixVoice(int[] mix, int mixOffset, int[] voice, int frames, int position, int length) {
+        final int attack = attackFrames(length);
+        final int releaseStart = length - releaseFrames(length);
+        int done = 0;
+        while (done < frames) {
+            int p = position + done;
+            int n;
+            if (p < attack) {
+                n = Math.min(frames - done, attack - p);
+                int step = UNITY_GAIN / attack;
+                addRamp(mix, mixOffset + done, voice, done, n, p * step, step);
+            } else if (p < releaseStart) {
+                n = Math.min(frames - done, releaseStart - p);
+                add(mix, mixOffset + done, voice, done, n);
+            } else {
+                n = frames - done;
+                int step = UNITY_GAIN / (length - releaseStart);
+                addRamp(mix, mixOffset + done, voice, done, n, (length - p) * step, -step);
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * Adds one block of a voice that is being cut short onto the mix, fading it from full volume at fadeStart
+     * down to silence at fadeEnd. Used when a voice is stolen, so it stops without a click.
+     * @param mix The buffer to add to.
+     * @param mixOffset Where in the mix buffer to start.
+     * @param voice The voice's samples for this block.
+     * @param frames How many samples to add.
+     * @param position How far into the note the block starts, in frames.
+     * @param fadeStart Where the fade started, in frames into the note.
+     * @param fadeEnd Where the fade reaches silence, in frames into the note.
+     */
+    static void fadeOut(int[] mix, int mixOffset, int[] voice, int frames, int position, int fadeStart, int fadeEnd) {
+        int step = UNITY_GAIN / Math.max(1, fadeEnd - fadeStart);
+        addRamp(mix, mixOffset, voice, 0, frames, (fadeEnd - position) * step, -step);
+    }
+
+    /**
+     * Adds a voice onto the mix at a fixed gain, like a bell's pan position in one channel.
+     * @param mix The buffer to add to.
+     * @param mixOffset Where in the mix buffer to start.
+     * @param voice The voice's samples, envelope included.
+     * @param frames How many samples to add.
+     * @param gain The gain, UNITY_GAIN for full volume.
+     */
+    static void addScaled(int[] mix, int mixOffset, int[] voice, int frames, int gain) {
+        for (int i = 0; i < frames; i++) {
+            mix[mixOffset + i] += (voice[i] * gain) >> GAIN_BITS;
+        }
+    }
+
+    /**
+     * Copies samples that already have their envelope (a cached note) into a wide buffer, so they can be shaped further.
+     * @param pcm The samples to copy.
+     * @param pcmOffset Where in the samples to start.
+     * @param out The buffer to copy into.
+     * @param frames How many samples to copy.
+     */
+    static void widen(byte[] pcm, int pcmOffset, int[] out, int frames) {
+        for (int i = 0; i < frames; i++) {
+            out[i] = pcm[pcmOffset + i];
+        }
+    }
+
+    /**
+     * Applies a note's envelope in place to samples that were rendered straight into a buffer.
+     * Only the attack and release are touched, the sustain is already at full volume.
+     * @param pcm The buffer holding the note.
+     * @param offset Where the note starts in the buffer.
+     * @param length The note's length, in frames.
+     */
+    static void applyEnvelope(byte[] pcm, int offset, int length) {
+        final int attack = attackFrames(length);
+        final int release = releaseFrames(length);
+        if (attack > 0) {
+            scaleRamp(pcm, offset, attack, 0, UNITY_GAIN / attack);
+        }
+        if (release > 0) {
+            int step = UNITY_GAIN / release;
+            scaleRamp(pcm, offset + length - release, release, release * step, -step);
+        }
+    }
+
+    /**
+     * Clips a block of summed samples into the signed 8 bit range.
+     * @param mix The summed samples.
+     * @param out The buffer to write the clipped samples to.
+     * @param frames How many samples to clip.
+     */
+    static void clip(int[] mix, byte[] out, int frames) {
+        for (int i = 0; i < frames; i++) {
+            out[i] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, mix[i]));
+        }
+    }
+
+    /**
+     * Gets how long a note's fade in is. Short notes get a shorter one, so the fades never overlap.
+     */
+    static int attackFrames(int length) {
+        return Math.min(ATTACK_FRAMES, length / 2);
+    }
+
+    /**
+     * Gets how long a note's fade out is. Short notes get a shorter one, so the fades never overlap.
+     */
+    static int releaseFrames(int length) {
+        return Math.min(RELEASE_FRAMES, length - attackFrames(length));
+    }
+
+    /**
+     * Adds samples that already have their envelope (a cached note) onto the mix.
+     * @param mix The buffer to add to.
+     * @param mixOffset Where in the mix buffer to start.
+     * @param pcm The samples to add.
+     * @param pcmOffset Where in the samples to start.
+     * @param frames How many samples to add.
+     */
+    static void add(int[] mix, int mixOffset, byte[] pcm, int pcmOffset, int frames) {
+        for (int i = 0; i < frames; i++) {
+            mix[mixOffset + i] += pcm[pcmOffset + i];
+        }
+    }
+
+    /**
+     * mix[i] += voice[i], the sustain of every note.
+     */
+    private static void add(int[] mix, int mixOffset, int[] voice, int voiceOffset, int frames) {
+        for (int i = 0; i < frames; i++) {
+            mix[mixOffset + i] += voice[voiceOffset + i];
+        }
+    }
+
+    /**
+     * mix[i] += voice[i] * gain, with the gain moving by step every sample.
+     */
+    private static void addRamp(int[] mix, int mixOffset, int[] voice, int voiceOffset, int frames, int gain, int step) {
+        for (int i = 0; i < frames; i++) {
+            mix[mixOffset + i] += (voice[voiceOffset + i] * (gain + i * step)) >> GAIN_BITS;
+        }
+    }
+
+    /**
+     * pcm[i] = pcm[i] * gain, with the gain moving by step every sample.
+     */
+    private static void scaleRamp(byte[] pcm, int offset, int frames, int gain, int step) {
+        for (int i = 0; i < frames; i++) {
+            pcm[offset + i] = (byte) ((pcm[offset + i] * (gain + i * step)) >> GAIN_BITS);
+        }
+    }
+}
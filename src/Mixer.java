@@ -0,0 +1,413 @@
+package src;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Mixer
+ * The only thread that writes to the SourceDataLine.
+ * Members hand their notes to the Mixer instead of writing to the line themselves. The Mixer then
+ * sums every note that is currently sounding into one fixed-size block, clips it, and writes that
+ * block to the line. Overlapping notes are really added together (true polyphony), and no Member
+ * can stall another by hogging the line.
+ * Each note gets a voice from a VoicePool, so a bell struck again while it still rings sounds twice over
+ * instead of cutting itself off, and nothing is allocated per note.
+ * The Mixer writes in whatever format its line was opened in (see PcmFormat): notes are synthesized at the line's
+ * sample rate, each bell is panned to its own place in stereo, and a SampleEncoder picked once up front turns
+ * the mix into 8, 16 or 24 bit frames. Every buffer is allocated when the Mixer is made.
+ * Time comes from a Clock. Live that is real time; with a VirtualClock (and a CaptureLine) the Mixer drives
+ * the clock itself, a block at a time, and starts each note on the exact frame it was triggered at.
+ * In low latency mode a WriteAheadController holds each block back until the line is nearly caught up,
+ * instead of letting the Mixer fill the whole line buffer ahead of time.
+ */
+public class Mixer extends Thread {
+
+    public static final int BLOCK_FRAMES = 1024; // Frames mixed and written per block.
+    // What the Mixer has always written, and still the default: 8 bit signed mono at the Note sample rate
+    static final AudioFormat FORMAT = PcmFormat.DEFAULT.toAudioFormat();
+    private static final int MAX_CACHED_NOTE_SECONDS = 4; // Longer notes are synthesized block by block instead of cached
+    // How far apart the lowest and highest bells stand in stereo: 0 is all in the middle, 1 is hard left to hard right
+    private static final double STEREO_WIDTH = 0.6d;
+    private static final Note[] NOTES = Note.values(); // Timeline member indexes are Note ordinals
+    private static final int STRIKES_PER_NOTE = 16; // Strikes of one note that can wait for the next block
+    private static final int MAX_STARTS_PER_BLOCK = 64; // Notes starting in one block that get their latency timed after the write
+    private static final Function<PhraseCache.NoteProbe, byte[]> RENDER_NOTE = probe -> Renderer.renderNote(
+            probe.note(), probe.lengthFrames(), probe.sampleRate(), new byte[probe.lengthFrames()], 0);
+
+    private final SourceDataLine line; // Audio output line, owned by the Mixer thread alone.
+    private final WriteAheadController writeAhead; // Keeps the line filled only to a target (null: fill it all)
+    private final Clock clock; // Where the Conductor, the Members and the Mixer get the time from
+    private final PcmFormat format; // What the line was opened in
+    private final AudioFormat noteFormat; // What cached notes are rendered in: 8 bit mono at the line's rate
+    private final SampleEncoder encoder; // Turns the mix into the line's sample size
+    private final int maxCachedNoteFrames;
+    private final long blockNanos; // How long one block plays for at the line's rate
+    private final int[][] panGains; // Gain of each bell in each channel, by channel then Note ordinal
+    private final PhraseCache noteCache = new PhraseCache(PhraseCache.DEFAULT_MAX_BYTES); // Rendered notes, by pitch and length
+    private final NoteQueue[] incoming = new NoteQueue[NOTES.length]; // Lock-free hand-off from each Member, by Note ordinal
+    private final PhraseCache.NoteProbe[] probes = new PhraseCache.NoteProbe[NOTES.length]; // Cache lookups, one per Note's Member
+    private final VoicePool voices; // Voices currently sounding (Mixer thread only)
+    private final int[][] mixBuffers; // Wide accumulator per channel so sums can't overflow before clipping
+    private final int[] voiceBuffer = new int[BLOCK_FRAMES]; // One voice's raw samples, before its envelope
+    private final int[] shapedBuffer = new int[BLOCK_FRAMES]; // One voice's samples with its envelope, before panning
+    private final byte[] outBuffer; // Encoded block that is written to the line
+    private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+    private final AtomicBoolean finishing = new AtomicBoolean(false); // Set when no new voices are coming
+    private final long[] startedTriggerNanos = new long[MAX_STARTS_PER_BLOCK]; // Trigger times of the voices starting this block
+    private final ChoirMetrics metrics = ChoirMetrics.INSTANCE;
+    private long blocksWritten = 0; // Mixer thread only
+
+    /**
+     * Constructor for the Mixer class.
+     * @param line Audio output line, already opened and started.
+     */
+    public Mixer(SourceDataLine line) {
+        this(line, null);
+    }
+
+    /**
+     * Constructor for a Mixer that only writes ahead of the line as far as a controller allows (low latency mode).
+     * @param line Audio output line, already opened and started.
+     * @param writeAhead Controller for how far ahead to write, or null to keep the line's whole buffer full.
+     */
+    Mixer(SourceDataLine line, WriteAheadController writeAhead) {
+        this(line, writeAhead, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor for a Mixer that runs on its own clock, like a VirtualClock to simulate a performance.
+     * A simulated clock must start at 0 along with the Mixer, since block n is played at frame n * BLOCK_FRAMES.
+     * @param line Audio output line, already opened and started, in a format PcmFormat can describe.
+     * @param writeAhead Controller for how far ahead to write, or null to keep the line's whole buffer full.
+     * @param clock The clock everyone playing through this Mixer uses.
+     */
+    Mixer(SourceDataLine line, WriteAheadController writeAhead, Clock clock) {
+        super("Mixer-Thread");
+        this.line = line;
+        this.writeAhead = writeAhead;
+        this.clock = clock;
+        this.format = PcmFormat.of(line.getFormat());
+        this.noteFormat = format.noteFormat();
+        this.encoder = SampleEncoder.of(format);
+        this.maxCachedNoteFrames = MAX_CACHED_NOTE_SECONDS * format.sampleRate;
+        this.blockNanos = BLOCK_FRAMES * 1_000_000_000L / format.sampleRate;
+        this.voices = new VoicePool(NOTES.length, format.sampleRate);
+        this.mixBuffers = new int[format.channels][BLOCK_FRAMES];
+        this.outBuffer = new byte[BLOCK_FRAMES * format.frameSize()];
+        this.panGains = panGains(format.channels);
+        for (int i = 0; i < incoming.length; i++) {
+            incoming[i] = new NoteQueue(STRIKES_PER_NOTE);
+            probes[i] = new PhraseCache.NoteProbe(noteFormat);
+        }
+    }
+
+    /**
+     * Hands a note to the Mixer. Returns immediately, the note is mixed in on the next block.
+     * Safe to call from any number of Member threads at once, as long as each note is only ever played
+     * from one thread at a time (the choir has one Member per note).
+     * @param note The note to play.
+     * @param length How many frames to play it for.
+     */
+    public void play(Note note, int length) {
+        play(note, length, clock.nanoTime());
+    }
+
+    /**
+     * Hands a note to the Mixer, remembering when it was triggered so the time until it is
+     * actually written to the line can be measured.
+     * @param note The note to play.
+     * @param length How many frames to play it for.
+     * @param triggerNanos When the note was triggered (in this Mixer's clock).
+     */
+    public void play(Note note, int length, long triggerNanos) {
+        byte[] pcm = null; // Longer notes are synthesized by their voice's Oscillator as they play
+        if (length <= maxCachedNoteFrames) {
+            // Rendered on the calling Member's thread the first time, then just copied by the Mixer.
+            // The lookup reuses this note's probe instead of building a key, so a cached note allocates nothing.
+            pcm = noteCache.getNote(probes[note.ordinal()].set(note, length), RENDER_NOTE);
+        }
+        if (!incoming[note.ordinal()].offer(length, triggerNanos, pcm)) {
+            metrics.notesDropped.increment(); // Struck more often in one block than the Mixer can take
+        }
+    }
+
+    /**
+     * Renders every note a song will need into the note cache ahead of time, so none of them has to be
+     * synthesized on a Member's thread while the song is playing. Safe to call while another song plays.
+     * New notes may fill at most half the cache, so getting the next song ready never pushes out the notes
+     * of the one playing (as long as those fit in the other half). Notes past that are rendered when played.
+     * @param timeline The song about to be played, compiled at this Mixer's sample rate.
+     * @return How many of the song's notes didn't fit and were left to render when played.
+     */
+    public int prefetch(Timeline timeline) {
+        long room = noteCache.getMaxBytes() / 2; // What new notes may add, the rest is left for the song playing
+        int skipped = 0;
+        for (int i = 0; i < timeline.size(); i++) {
+            int length = timeline.lengthFrames[i];
+            if (length <= maxCachedNoteFrames) {
+                Note note = NOTES[timeline.memberIndexes[i]];
+                PhraseCache.Key key = PhraseCache.Key.ofNote(note, length, noteFormat);
+                if (!noteCache.contains(key)) {
+                    if (length > room) {
+                        skipped++;
+                        continue;
+                    }
+                    room -= length; // One byte a frame, notes are cached as 8 bit mono
+                }
+                noteCache.get(key, () -> Renderer.renderNote(note, length, format.sampleRate, new byte[length], 0));
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Tells whether the Mixer can still accept notes.
+     * @return True if the Mixer has an open line and hasn't been told to stop.
+     */
+    public boolean isRunning() {
+        return keepRunning.get() && line != null && line.isOpen();
+    }
+
+    /**
+     * Overrides the run method of the Thread class.
+     * Mixes and writes one block at a time until told to stop.
+     * When there is nothing to play, silence is written so the line keeps running at a steady pace.
+     */
+    @Override
+    public void run() {
+        while (keepRunning.get()) {
+            if (!writeBlock()) {
+                break; // Everything has been played
+            }
+        }
+    }
+
+    /**
+     * Mixes the next block and writes it to the line. Only ever called from one thread at a time.
+     * @return False if the Mixer is finishing and has nothing left to play, true otherwise.
+     */
+    boolean writeBlock() {
+        if (writeAhead != null) {
+            writeAhead.awaitRoom(line, BLOCK_FRAMES); // Mix as late as we safely can, so new notes get in sooner
+        }
+
+        // A simulated clock only moves when we ask, so let everything due before the end of this block happen first
+        final long blockStart = blocksWritten * BLOCK_FRAMES;
+        try {
+            clock.advanceTo(Timeline.framesToNanos(blockStart + BLOCK_FRAMES, format.sampleRate));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // Pick up any notes the Members handed over since the last block
+        int started = 0;
+        for (int n = 0; n < incoming.length; n++) {
+            NoteQueue strikes = incoming[n];
+            while (!strikes.isEmpty()) {
+                long triggerNanos = strikes.peekTriggerNanos();
+                VoicePool.Voice voice = voices.strike(NOTES[n], strikes.peekPcm(), strikes.peekLengthFrames(), triggerNanos);
+                if (clock.isSimulated()) {
+                    voice.startFrame = (int) Math.max(0, Math.min(BLOCK_FRAMES - 1, frameOf(triggerNanos) - blockStart));
+                }
+                strikes.remove();
+                if (started < MAX_STARTS_PER_BLOCK) {
+                    startedTriggerNanos[started++] = triggerNanos;
+                } else {
+                    metrics.triggerToWrite.record(clock.nanoTime() - triggerNanos); // Rare burst, time it now
+                }
+            }
+        }
+
+        if (voices.isEmpty() && finishing.get()) {
+            return false;
+        }
+
+        mixBlock();
+
+        // See how much the line still had queued up. Empty after the first block means it ran dry and skipped.
+        int bufferSize = line.getBufferSize();
+        int available = line.available();
+        boolean underrun;
+        if (writeAhead != null) {
+            underrun = writeAhead.checkUnderrun(line); // Also lets the controller adapt its target
+            metrics.recordWriteAhead(writeAhead.getTargetFrames());
+        } else {
+            // A simulated line has no device behind it to run dry
+            underrun = !clock.isSimulated() && blocksWritten > 0 && available >= bufferSize;
+        }
+        if (underrun) {
+            metrics.underruns.increment();
+        }
+        int queuedFrames = (bufferSize - available) / format.frameSize();
+        metrics.recordLineBuffer(queuedFrames, bufferSize / format.frameSize());
+
+        BlockWriteEvent event = BlockWriteEvent.begin(blocksWritten, BLOCK_FRAMES, voices.size(), queuedFrames);
+        long writeStart = System.nanoTime();
+        line.write(outBuffer, 0, outBuffer.length);
+        metrics.lineWrite.record(System.nanoTime() - writeStart);
+        if (event != null) {
+            event.commit();
+        }
+        long written = clock.nanoTime();
+        if (writeAhead != null) {
+            writeAhead.written(BLOCK_FRAMES);
+        }
+        for (int i = 0; i < started; i++) {
+            metrics.triggerToWrite.record(written - startedTriggerNanos[i]);
+        }
+        blocksWritten++;
+        return true;
+    }
+
+    /**
+     * Sums every sounding voice into the next block, each shaped by its envelope, then encodes the sum for the line.
+     * A voice that was stolen gets a short fade out on top, down to silence at its new end.
+     * In stereo each voice is shaped once and then added to both channels at its bell's pan gains.
+     */
+    private void mixBlock() {
+        for (int[] mix : mixBuffers) {
+            Arrays.fill(mix, 0);
+        }
+        final boolean mono = mixBuffers.length == 1;
+        int v = voices.first();
+        while (v != VoicePool.NONE) {
+            VoicePool.Voice voice = voices.voice(v);
+            int following = voices.next(v); // Before this voice can be freed
+            int at = voice.startFrame; // Where in the block the voice comes in, 0 unless it starts part way through
+            int frames = Math.min(BLOCK_FRAMES - at, voice.end - voice.position);
+            if (mono) {
+                addVoice(voice, mixBuffers[0], at, frames); // Straight into the mix
+            } else {
+                Arrays.fill(shapedBuffer, 0, frames, 0);
+                addVoice(voice, shapedBuffer, 0, frames);
+                for (int c = 0; c < mixBuffers.length; c++) {
+                    MixKernel.addScaled(mixBuffers[c], at, shapedBuffer, frames, panGains[c][voice.pitch]);
+                }
+            }
+            voice.startFrame = 0;
+            voice.position += frames;
+            if (voice.position >= voice.end) {
+                voices.release(v); // Voice is done, back to the pool
+            }
+            v = following;
+        }
+        encoder.encode(mixBuffers, outBuffer, BLOCK_FRAMES);
+    }
+
+    /**
+     * Adds the next frames of one voice, shaped by its envelope (or its fade out if it was stolen), onto a buffer.
+     * @param voice The voice.
+     * @param target The buffer to add to.
+     * @param at Where in the buffer to start.
+     * @param frames How many frames to add.
+     */
+    private void addVoice(VoicePool.Voice voice, int[] target, int at, int frames) {
+        if (voice.isFading()) {
+            if (voice.pcm != null) {
+                MixKernel.widen(voice.pcm, voice.position, voiceBuffer, frames);
+            } else {
+                voice.oscillator.render(voiceBuffer, 0, frames);
+            }
+            MixKernel.fadeOut(target, at, voiceBuffer, frames, voice.position, voice.fadeStart, voice.end);
+        } else if (voice.pcm != null) {
+            MixKernel.add(target, at, voice.pcm, voice.position, frames); // Envelope is already in the PCM
+        } else {
+            voice.oscillator.render(voiceBuffer, 0, frames);
+            MixKernel.mixVoice(target, at, voiceBuffer, frames, voice.position, voice.length);
+        }
+    }
+
+    /**
+     * Works out where each bell stands in stereo: in a row from the lowest on the left to the highest on the right,
+     * with constant power panning so a bell sounds as loud wherever it stands.
+     * @param channels 1 for mono (every bell at full gain), 2 for stereo.
+     * @return The gain of each bell in each channel, by channel then Note ordinal.
+     */
+    private static int[][] panGains(int channels) {
+        int[][] gains = new int[channels][NOTES.length];
+        for (int n = 0; n < NOTES.length; n++) {
+            if (channels == 1) {
+                gains[0][n] = MixKernel.UNITY_GAIN;
+                continue;
+            }
+            // REST never sounds, so the bells are ordinals 1 up to NOTES.length - 1
+            double place = n == 0 ? 0.5d : (double) (n - 1) / (NOTES.length - 2);
+            double angle = (0.5d + (place - 0.5d) * STEREO_WIDTH) * Math.PI / 2;
+            gains[0][n] = (int) Math.round(Math.cos(angle) * MixKernel.UNITY_GAIN);
+            gains[1][n] = (int) Math.round(Math.sin(angle) * MixKernel.UNITY_GAIN);
+        }
+        return gains;
+    }
+
+    /**
+     * Lets the Mixer play out every note it has been given, then stop.
+     * Called once the Conductor is done and no more notes will arrive.
+     */
+    public void finish() {
+        finishing.set(true);
+    }
+
+    /**
+     * Signals the Mixer thread to stop right away, dropping anything still sounding.
+     */
+    public void stopMixing() {
+        keepRunning.set(false);
+    }
+
+    /**
+     * This method called from the main thread to wait for the Mixer to finish cleanly.
+     */
+    public void joinThread() {
+        try {
+            this.join();
+        } catch (InterruptedException e) {
+            System.err.println(getName() + " interrupted while being joined.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the sample rate the Mixer plays at, the line's. Timelines played through it are compiled at this rate.
+     * @return Frames per second.
+     */
+    public int getSampleRate() {
+        return format.sampleRate;
+    }
+
+    /**
+     * Gets how long one block plays for, at the line's sample rate. A note handed over later than this
+     * after its trigger has missed the block it was meant for.
+     * @return Nanoseconds per block.
+     */
+    public long getBlockNanos() {
+        return blockNanos;
+    }
+
+    /**
+     * Gets the clock this Mixer, and everyone playing through it, runs on.
+     * @return The clock.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Works out which frame a clock time falls on: the first frame that starts at or after it,
+     * so it undoes Timeline.framesToNanos exactly.
+     */
+    private long frameOf(long nanos) {
+        return (nanos * format.sampleRate + 999_999_999L) / 1_000_000_000L;
+    }
+
+    /**
+     * Gets the cache of notes the Mixer has rendered, to see how often notes were reused.
+     * @return The note cache.
+     */
+    PhraseCache getNoteCache() {
+        return noteCache;
+    }
+}
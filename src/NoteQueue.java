@@ -0,0 +1,117 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NoteQueue
+ * A bounded, lock-free queue of notes waiting to be played by one Member.
+ * Exactly one thread (the Conductor) offers notes and exactly one thread (the Member) takes them,
+ * so the two sides only ever publish their own counter and never need a lock.
+ * Each note carries the time it was triggered so the Member can tell when it got to it late.
+ * The Mixer uses the same queue to take notes from each Member, with the note's rendered PCM alongside.
+ */
+class NoteQueue {
+
+    private final int[] lengthFrames; // How many frames each waiting note sounds for
+    private final long[] triggerNanos; // When each waiting note was triggered (System.nanoTime())
+    private final byte[][] pcm; // Each waiting note's rendered samples, if it came with any
+    private final int mask; // Capacity - 1, capacity is always a power of two
+    private final AtomicLong head = new AtomicLong(); // Next slot to take, only advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next slot to fill, only advanced by the producer
+
+    /**
+     * Constructor for the NoteQueue class.
+     * @param capacity How many notes can wait at once, rounded up to a power of two.
+     */
+    NoteQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.lengthFrames = new int[size];
+        this.triggerNanos = new long[size];
+        this.pcm = new byte[size][];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a note to the back of the queue. Producer side only.
+     * @param frames How many frames the note sounds for.
+     * @param nanos When the note was triggered.
+     * @return True if the note was queued, false if the queue was full.
+     */
+    boolean offer(int frames, long nanos) {
+        return offer(frames, nanos, null);
+    }
+
+    /**
+     * Adds a note to the back of the queue, along with its rendered samples. Producer side only.
+     * @param frames How many frames the note sounds for.
+     * @param nanos When the note was triggered.
+     * @param samples The note's rendered samples, or null if it has none.
+     * @return True if the note was queued, false if the queue was full.
+     */
+    boolean offer(int frames, long nanos, byte[] samples) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false; // Full, the Member is too far behind
+        }
+        int index = (int) (t & mask);
+        lengthFrames[index] = frames;
+        triggerNanos[index] = nanos;
+        pcm[index] = samples;
+        tail.lazySet(t + 1); // Publishes the slot to the consumer
+        return true;
+    }
+
+    /**
+     * Tells whether there is a note waiting. Consumer side only.
+     * @return True if the queue is empty.
+     */
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Gets the length of the note at the front of the queue, without removing it. Consumer side only.
+     * @return How many frames the next note sounds for.
+     */
+    int peekLengthFrames() {
+        return lengthFrames[(int) (head.get() & mask)];
+    }
+
+    /**
+     * Gets the trigger time of the note at the front of the queue, without removing it. Consumer side only.
+     * @return When the next note was triggered.
+     */
+    long peekTriggerNanos() {
+        return triggerNanos[(int) (head.get() & mask)];
+    }
+
+    /**
+     * Gets the rendered samples of the note at the front of the queue, without removing it. Consumer side only.
+     * @return The samples offered with the next note, or null if it had none.
+     */
+    byte[] peekPcm() {
+        return pcm[(int) (head.get() & mask)];
+    }
+
+    /**
+     * Removes the note at the front of the queue. Consumer side only.
+     */
+    void remove() {
+        long h = head.get();
+        pcm[(int) (h & mask)] = null; // Don't keep the samples alive once the note is taken
+        head.lazySet(h + 1); // Hands the slot back to the producer
+    }
+
+    /**
+     * Empties the queue. Consumer side only, or once the producer has stopped.
+     * @return How many notes were thrown away.
+     */
+    int clear() {
+        int cleared = 0;
+        while (!isEmpty()) {
+            remove();
+            cleared++;
+        }
+        return cleared;
+    }
+}
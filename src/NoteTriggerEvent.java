@@ -0,0 +1,52 @@
+package src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * NoteTriggerEvent
+ * A Flight Recorder event for every note the Conductor sends to a Member, so a recording shows exactly
+ * when each note went out and how far off its deadline it was, next to GC pauses and thread activity.
+ * Only made when a recording has the event turned on, so it costs nothing (and allocates nothing) otherwise.
+ */
+@Name("bellchoir.NoteTrigger")
+@Label("Note Trigger")
+@Category("Bell Choir")
+@Description("The Conductor sent a note to its Member")
+class NoteTriggerEvent extends jdk.jfr.Event {
+
+    static final EventType TYPE = EventType.getEventType(NoteTriggerEvent.class);
+
+    @Label("Note")
+    String note;
+
+    @Label("Length")
+    @Description("How many frames the note sounds for")
+    int lengthFrames;
+
+    @Label("Lateness")
+    @Description("How far past its deadline the note went out (negative if early)")
+    @Timespan(Timespan.NANOSECONDS)
+    long latenessNanos;
+
+    /**
+     * Records a note going out, if a recording wants it.
+     * @param note The note.
+     * @param lengthFrames How many frames it sounds for.
+     * @param latenessNanos How far past its deadline it went out.
+     */
+    static void emit(Note note, int lengthFrames, long latenessNanos) {
+        if (!TYPE.isEnabled()) {
+            return;
+        }
+        NoteTriggerEvent event = new NoteTriggerEvent();
+        event.note = note.name();
+        event.lengthFrames = lengthFrames;
+        event.latenessNanos = latenessNanos;
+        event.commit();
+    }
+}
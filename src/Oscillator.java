@@ -0,0 +1,82 @@
+package src;
+
+/**
+ * Oscillator
+ * Plays one pitch by stepping a phase accumulator through the shared Wavetable.
+ * The phase carries on from one call to the next, so a note can be rendered a block at a time
+ * for as long as it needs to last without any gap or click between blocks.
+ */
+class Oscillator {
+
+    private static final int INDEX_SHIFT = 32 - Wavetable.TABLE_BITS; // Top bits of the phase pick the table entry
+
+    private final byte[] table = Wavetable.table();
+    private int phaseStep; // How far through the cycle each sample moves (unsigned 32 bit fraction)
+    private int phase; // Where in the cycle we are (unsigned 32 bit fraction)
+
+    /**
+     * Constructor for the Oscillator class. Starts at the beginning of the cycle.
+     * @param frequency The pitch to play, in Hz.
+     * @param sampleRate The output sample rate.
+     */
+    Oscillator(double frequency, int sampleRate) {
+        this.phaseStep = Wavetable.phaseStep(frequency, sampleRate);
+    }
+
+    /**
+     * Switches to another pitch and goes back to the beginning of the cycle, so one Oscillator can be reused
+     * for note after note without allocating a new one.
+     * @param frequency The pitch to play, in Hz.
+     * @param sampleRate The output sample rate.
+     */
+    void retune(double frequency, int sampleRate) {
+        this.phaseStep = Wavetable.phaseStep(frequency, sampleRate);
+        this.phase = 0;
+    }
+
+    /**
+     * Writes the next samples of the note into a buffer, replacing what was there.
+     * @param out The buffer to write to.
+     * @param offset Where in the buffer to start.
+     * @param frames How many samples to write.
+     */
+    void render(byte[] out, int offset, int frames) {
+        int p = phase;
+        for (int i = 0; i < frames; i++) {
+            out[offset + i] = table[p >>> INDEX_SHIFT];
+            p += phaseStep;
+        }
+        phase = p;
+    }
+
+    /**
+     * Writes the next samples of the note into a wide buffer, replacing what was there,
+     * ready to be shaped and mixed by MixKernel.
+     * @param out The buffer to write to.
+     * @param offset Where in the buffer to start.
+     * @param frames How many samples to write.
+     */
+    void render(int[] out, int offset, int frames) {
+        int p = phase;
+        for (int i = 0; i < frames; i++) {
+            out[offset + i] = table[p >>> INDEX_SHIFT];
+            p += phaseStep;
+        }
+        phase = p;
+    }
+
+    /**
+     * Adds the next samples of the note onto a mix buffer.
+     * @param mix The buffer to add to.
+     * @param offset Where in the buffer to start.
+     * @param frames How many samples to add.
+     */
+    void mix(int[] mix, int offset, int frames) {
+        int p = phase;
+        for (int i = 0; i < frames; i++) {
+            mix[offset + i] += table[p >>> INDEX_SHIFT];
+            p += phaseStep;
+        }
+        phase = p;
+    }
+}
@@ -0,0 +1,109 @@
+package src;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * PcmFormat
+ * The output formats the Mixer can write: signed little-endian PCM at 8, 16 or 24 bits, mono or stereo,
+ * at any sample rate from 8 kHz to 192 kHz.
+ * Notes are always synthesized from the same 8 bit wavetable and mixed in 8 bit units. The format only
+ * decides the sample rate they are synthesized at, how the mix is spread over the channels, and how it is
+ * encoded on the way out (see SampleEncoder). 16 and 24 bit output is that 8 bit mix shifted up, so it has the
+ * 8 bit noise floor: pick a wider format because the line needs it, not for better sound.
+ */
+final class PcmFormat {
+
+    static final int MIN_SAMPLE_RATE = 8_000;
+    static final int MAX_SAMPLE_RATE = 192_000;
+    // What the choir has always played: 8 bit mono at the Note sample rate
+    static final PcmFormat DEFAULT = new PcmFormat(Note.SAMPLE_RATE, 8, 1);
+
+    final int sampleRate;
+    final int bits; // Bits per sample: 8, 16 or 24
+    final int channels; // 1 (mono) or 2 (stereo)
+
+    /**
+     * Constructor for the PcmFormat class.
+     * @param sampleRate Frames per second.
+     * @param bits Bits per sample: 8, 16 or 24.
+     * @param channels 1 for mono, 2 for stereo.
+     * @throws IllegalArgumentException If the Mixer can't write that format.
+     */
+    PcmFormat(int sampleRate, int bits, int channels) {
+        if (sampleRate < MIN_SAMPLE_RATE || sampleRate > MAX_SAMPLE_RATE) {
+            throw new IllegalArgumentException("Sample rate must be " + MIN_SAMPLE_RATE + " to " + MAX_SAMPLE_RATE + " Hz, not " + sampleRate);
+        }
+        if (bits != 8 && bits != 16 && bits != 24) {
+            throw new IllegalArgumentException("Samples must be 8, 16 or 24 bit, not " + bits);
+        }
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException("Output must be mono or stereo, not " + channels + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.bits = bits;
+        this.channels = channels;
+    }
+
+    /**
+     * Reads a format written as "RATE/BITS/CHANNELS", like "44100/16/2".
+     * @param text The format.
+     * @return The format, or null if it isn't one the Mixer can write.
+     */
+    static PcmFormat parse(String text) {
+        String[] parts = text.split("/");
+        if (parts.length != 3) {
+            return null;
+        }
+        int rate = SongParser.durationOf(parts[0], 0, parts[0].length());
+        int bits = SongParser.durationOf(parts[1], 0, parts[1].length());
+        int channels = SongParser.durationOf(parts[2], 0, parts[2].length());
+        try {
+            return new PcmFormat(rate, bits, channels);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the format a line was opened in, if the Mixer can write it.
+     * @param format The line's format.
+     * @return The matching PcmFormat.
+     * @throws IllegalArgumentException If it isn't signed little-endian PCM the Mixer can write.
+     */
+    static PcmFormat of(AudioFormat format) {
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                || (format.getSampleSizeInBits() > 8 && format.isBigEndian())) {
+            throw new IllegalArgumentException("The Mixer only writes signed little-endian PCM, not " + format);
+        }
+        return new PcmFormat((int) format.getSampleRate(), format.getSampleSizeInBits(), format.getChannels());
+    }
+
+    /**
+     * Gets the size of one frame (a sample for every channel).
+     * @return Bytes per frame.
+     */
+    int frameSize() {
+        return bits / 8 * channels;
+    }
+
+    /**
+     * Gets the matching AudioFormat, to open a line with.
+     * @return Signed little-endian PCM in this format.
+     */
+    AudioFormat toAudioFormat() {
+        return new AudioFormat(sampleRate, bits, channels, true, false);
+    }
+
+    /**
+     * Gets the format cached notes are rendered in: 8 bit mono, at this sample rate.
+     * @return The AudioFormat of a rendered note.
+     */
+    AudioFormat noteFormat() {
+        return new AudioFormat(sampleRate, 8, 1, true, false);
+    }
+
+    @Override
+    public String toString() {
+        return sampleRate + " Hz, " + bits + " bit, " + (channels == 1 ? "mono" : "stereo");
+    }
+}
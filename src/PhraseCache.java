@@ -0,0 +1,324 @@
+package src;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * PhraseCache
+ * Keeps the PCM of recently rendered phrases, so a passage that comes round again is copied instead
+ * of synthesized again. Songs repeat a lot (most of lamb.txt is the same few measures), and a phrase
+ * sounds exactly the same every time its notes, timing and audio format are the same.
+ * A phrase is keyed on what it compiles to: each note's pitch, its onset and length in frames relative
+ * to the start of the phrase, and the phrase's total length. That is what a run of BellNotes at a given
+ * tempo and sample rate turns into, and keying on frames means a hit is always sample for sample right.
+ * The cache holds at most maxBytes of PCM and evicts the least recently used phrase to make room.
+ * Safe to share between threads.
+ */
+class PhraseCache {
+
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024; // Default memory bound, 32 MB of PCM.
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> phrases = new LinkedHashMap<>(64, 0.75f, true); // Access order, eldest first
+    private long bytes = 0; // PCM currently held
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor for the PhraseCache class.
+     * @param maxBytes Most PCM to hold at once, in bytes.
+     */
+    PhraseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a phrase's PCM, rendering and caching it if it isn't cached yet.
+     * Rendering happens outside the lock, so a slow render never holds up other threads.
+     * The returned array is shared, it must not be changed.
+     * @param key The phrase.
+     * @param render Renders the phrase if it isn't cached.
+     * @return The phrase's PCM.
+     */
+    byte[] get(Key key, Supplier<byte[]> render) {
+        synchronized (this) {
+            byte[] pcm = phrases.get(key);
+            if (pcm != null) {
+                hits++;
+                return pcm;
+            }
+            misses++;
+        }
+        byte[] pcm = render.get();
+        put(key, pcm);
+        return pcm;
+    }
+
+    /**
+     * Gets a single note's PCM, rendering and caching it if it isn't cached yet.
+     * Looks the note up with a probe instead of a Key, so a note that is already cached costs no allocation.
+     * The returned array is shared, it must not be changed.
+     * @param probe The note, set up with NoteProbe.set().
+     * @param render Renders the note if it isn't cached.
+     * @return The note's PCM.
+     */
+    byte[] getNote(NoteProbe probe, Function<NoteProbe, byte[]> render) {
+        synchronized (this) {
+            byte[] pcm = phrases.get(probe); // Equal to the Key the note was cached under, see NoteProbe.equals()
+            if (pcm != null) {
+                hits++;
+                return pcm;
+            }
+            misses++;
+        }
+        byte[] pcm = render.apply(probe);
+        put(probe.toKey(), pcm);
+        return pcm;
+    }
+
+    /**
+     * Adds a phrase, then evicts the least recently used ones until the cache is back under its bound.
+     * A phrase bigger than the whole bound is simply not kept.
+     */
+    private synchronized void put(Key key, byte[] pcm) {
+        if (pcm.length > maxBytes) {
+            return;
+        }
+        byte[] old = phrases.put(key, pcm);
+        bytes += pcm.length - (old == null ? 0 : old.length);
+        Iterator<Map.Entry<Key, byte[]>> eldest = phrases.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Tells whether a phrase is cached, without counting a hit or making it the most recently used.
+     * @param key The phrase.
+     * @return True if it is cached.
+     */
+    synchronized boolean contains(Key key) {
+        return phrases.containsKey(key);
+    }
+
+    /**
+     * Gets the most PCM the cache holds at once.
+     * @return The bound, in bytes.
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets how many lookups found their phrase already cached.
+     * @return The number of hits.
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets how many lookups had to render their phrase.
+     * @return The number of misses.
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets how much PCM the cache is holding.
+     * @return The size of every cached phrase added up, in bytes.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Key - Everything that decides what a phrase sounds like.
+     * The hash is worked out once, up front, since keys are looked up far more often than built.
+     */
+    static final class Key {
+        private final int sampleRate;
+        private final int sampleSizeInBits;
+        private final int channels;
+        private final int spanFrames; // Length of the whole phrase, including any rest at the end
+        private final int[] memberIndexes; // Pitch of each note (the Note ordinal)
+        private final int[] onsets; // Where each note starts, in frames from the start of the phrase
+        private final int[] lengths; // How many frames each note sounds for
+        private final int hash;
+
+        private Key(AudioFormat format, int spanFrames, int[] memberIndexes, int[] onsets, int[] lengths) {
+            this.sampleRate = (int) format.getSampleRate();
+            this.sampleSizeInBits = format.getSampleSizeInBits();
+            this.channels = format.getChannels();
+            this.spanFrames = spanFrames;
+            this.memberIndexes = memberIndexes;
+            this.onsets = onsets;
+            this.lengths = lengths;
+            int h = 31 * (31 * (31 * sampleRate + sampleSizeInBits) + channels) + spanFrames;
+            h = 31 * h + Arrays.hashCode(memberIndexes);
+            h = 31 * h + Arrays.hashCode(onsets);
+            this.hash = 31 * h + Arrays.hashCode(lengths);
+        }
+
+        /**
+         * Builds the key for a run of events in a Timeline.
+         * @param timeline The compiled song.
+         * @param from First event of the phrase.
+         * @param to One past the last event of the phrase.
+         * @param spanFrames Length of the whole phrase, in frames.
+         * @param format The format the phrase is rendered in.
+         * @return The key.
+         */
+        static Key of(Timeline timeline, int from, int to, int spanFrames, AudioFormat format) {
+            int[] onsets = new int[to - from];
+            long start = timeline.onsetFrames[from];
+            for (int e = from; e < to; e++) {
+                onsets[e - from] = (int) (timeline.onsetFrames[e] - start);
+            }
+            return new Key(format, spanFrames, Arrays.copyOfRange(timeline.memberIndexes, from, to), onsets,
+                    Arrays.copyOfRange(timeline.lengthFrames, from, to));
+        }
+
+        /**
+         * Builds the key for a single note with nothing after it.
+         * @param note The note.
+         * @param lengthFrames How many frames it sounds for.
+         * @param format The format the note is rendered in.
+         * @return The key.
+         */
+        static Key ofNote(Note note, int lengthFrames, AudioFormat format) {
+            return new Key(format, lengthFrames, new int[]{note.ordinal()}, new int[]{0}, new int[]{lengthFrames});
+        }
+
+        /**
+         * Tells whether this is the key of a single note, as made by ofNote().
+         */
+        private boolean isNote(int pitch, int lengthFrames, int sampleRate, int sampleSizeInBits, int channels) {
+            return memberIndexes.length == 1 && memberIndexes[0] == pitch && onsets[0] == 0 && lengths[0] == lengthFrames
+                    && spanFrames == lengthFrames && this.sampleRate == sampleRate
+                    && this.sampleSizeInBits == sampleSizeInBits && this.channels == channels;
+        }
+
+        /**
+         * Works out the hash ofNote() would give a note, without making the arrays.
+         */
+        private static int noteHash(int pitch, int lengthFrames, int sampleRate, int sampleSizeInBits, int channels) {
+            int h = 31 * (31 * (31 * sampleRate + sampleSizeInBits) + channels) + lengthFrames;
+            h = 31 * h + (31 + pitch); // Arrays.hashCode of a one element array
+            h = 31 * h + 31; // Onset 0
+            return 31 * h + (31 + lengthFrames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof NoteProbe probe) {
+                return probe.matches(this); // Both ways round, so the map can compare from either side
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && sampleRate == other.sampleRate && sampleSizeInBits == other.sampleSizeInBits
+                    && channels == other.channels && spanFrames == other.spanFrames
+                    && Arrays.equals(memberIndexes, other.memberIndexes) && Arrays.equals(onsets, other.onsets)
+                    && Arrays.equals(lengths, other.lengths);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * NoteProbe - A reusable stand-in for a single note's Key, for looking notes up without allocating.
+     * It hashes and compares equal to the Key ofNote() would make (and that Key compares equal to it), so the map
+     * finds the cached note with it.
+     * A probe is changed by every lookup, so each thread needs its own.
+     */
+    static final class NoteProbe {
+        private final int sampleRate;
+        private final int sampleSizeInBits;
+        private final int channels;
+        private final AudioFormat format;
+        private Note note;
+        private int lengthFrames;
+        private int hash;
+
+        /**
+         * Constructor for the NoteProbe class.
+         * @param format The format the notes are rendered in.
+         */
+        NoteProbe(AudioFormat format) {
+            this.format = format;
+            this.sampleRate = (int) format.getSampleRate();
+            this.sampleSizeInBits = format.getSampleSizeInBits();
+            this.channels = format.getChannels();
+        }
+
+        /**
+         * Points the probe at a note.
+         * @param note The note.
+         * @param lengthFrames How many frames it sounds for.
+         * @return The probe, for convenience.
+         */
+        NoteProbe set(Note note, int lengthFrames) {
+            this.note = note;
+            this.lengthFrames = lengthFrames;
+            this.hash = Key.noteHash(note.ordinal(), lengthFrames, sampleRate, sampleSizeInBits, channels);
+            return this;
+        }
+
+        Note note() {
+            return note;
+        }
+
+        int lengthFrames() {
+            return lengthFrames;
+        }
+
+        int sampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * Makes the real Key for the note, to cache it under.
+         */
+        Key toKey() {
+            return Key.ofNote(note, lengthFrames, format);
+        }
+
+        /**
+         * Tells whether a Key is the one ofNote() would make for the note this probe points at.
+         * Key.equals() and NoteProbe.equals() both come down to this, so they always agree.
+         */
+        boolean matches(Key key) {
+            return key.hash == hash && key.isNote(note.ordinal(), lengthFrames, sampleRate, sampleSizeInBits, channels);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof NoteProbe other) {
+                return other.hash == hash && other.note == note && other.lengthFrames == lengthFrames
+                        && other.sampleRate == sampleRate && other.sampleSizeInBits == sampleSizeInBits
+                        && other.channels == channels;
+            }
+            return o instanceof Key key && matches(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package src;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renderer
+ * Renders a song straight into a file instead of performing it live.
+ * Where the Conductor and Members pace themselves in real time against a SourceDataLine,
+ * the Renderer simply walks the song's compiled Timeline and synthesizes each note straight into the
+ * frame it would have been heard at. No sleeping and no audio device, so it runs as fast as the disk allows.
+ */
+public class Renderer {
+
+    private static final int MAX_CACHED_PHRASE_SECONDS = 4; // Longer phrases (multi-measure holds) skip the cache
+
+    private final AudioFormat af; // Format of the rendered audio (must match the Note samples).
+    private final PhraseCache cache; // Phrases already rendered, reused when the song repeats itself.
+
+    /**
+     * Constructor for the Renderer class.
+     * @param af AudioFormat the rendered audio is written in.
+     */
+    public Renderer(AudioFormat af) {
+        this(af, new PhraseCache(PhraseCache.DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Constructor for a Renderer that shares a PhraseCache, so repeats are found across songs too.
+     * @param af AudioFormat the rendered audio is written in.
+     * @param cache The cache of rendered phrases.
+     */
+    Renderer(AudioFormat af, PhraseCache cache) {
+        this.af = af;
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the cache of rendered phrases, to see how much of the song was reused.
+     * @return The phrase cache.
+     */
+    PhraseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Renders the song into one sample-accurate PCM buffer, at the default tempo.
+     * Each note starts exactly where the previous one ended, just like the Conductor's timing,
+     * and rests are left as silence.
+     * @param songNotes List of notes in the song.
+     * @return The raw PCM data for the whole song.
+     */
+    public byte[] render(List<BellNote> songNotes) {
+        return render(Timeline.compile(Score.of(songNotes), Timeline.DEFAULT_TEMPO_BPM, Note.SAMPLE_RATE));
+    }
+
+    /**
+     * Renders a compiled Timeline into one sample-accurate PCM buffer.
+     * Every event is synthesized straight into the frame it starts at, anything in between is silence.
+     * Notes get the same fade in and fade out as in the Mixer, and the notes of a chord are summed
+     * and clipped the same way the Mixer does it.
+     * The song is rendered a phrase (measure) at a time through the PhraseCache, so a phrase that has
+     * been heard before is copied instead of synthesized again. A phrase stretched out by a note held over
+     * several measures is rendered straight into the song, so it never needs a buffer of its own.
+     * @param timeline The compiled song.
+     * @return The raw PCM data for the whole song.
+     */
+    public byte[] render(Timeline timeline) {
+        byte[] pcm = allocate(timeline);
+        for (int phrase = 0; phrase < timeline.phraseCount(); phrase++) {
+            renderPhrase(timeline, phrase, pcm);
+        }
+        return pcm;
+    }
+
+    /**
+     * Renders a compiled Timeline like render(Timeline), but splits it into runs of phrases and renders
+     * them in parallel on a fork-join pool. Phrases never overlap (every note of one has finished by the
+     * time the next starts), so each task writes its own stretch of the buffer and the result is exactly
+     * the same as rendering in order.
+     * @param timeline The compiled song.
+     * @param pool The pool to render on.
+     * @return The raw PCM data for the whole song.
+     */
+    public byte[] render(Timeline timeline, ForkJoinPool pool) {
+        byte[] pcm = allocate(timeline);
+        pool.invoke(new PhraseTask(timeline, pcm, 0, timeline.phraseCount()));
+        return pcm;
+    }
+
+    /**
+     * Makes the buffer a whole song is rendered into.
+     */
+    private static byte[] allocate(Timeline timeline) {
+        if (timeline.totalFrames > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Song is too long to render into a single buffer: " + timeline.totalFrames + " frames");
+        }
+        return new byte[(int) timeline.totalFrames];
+    }
+
+    /**
+     * Renders one phrase into its place in the song, from the cache if it has been rendered before.
+     * @param timeline The compiled song.
+     * @param phrase Which phrase.
+     * @param pcm The buffer for the whole song.
+     */
+    private void renderPhrase(Timeline timeline, int phrase, byte[] pcm) {
+        final int from = timeline.phraseStart(phrase);
+        final int to = timeline.phraseEnd(phrase);
+        final long start = timeline.onsetFrames[from];
+        final int span = (int) (timeline.phraseEndFrame(phrase) - start);
+        if (span > MAX_CACHED_PHRASE_SECONDS * timeline.sampleRate) {
+            renderEvents(timeline, from, to, pcm, 0); // A long hold, straight into the song rather than through a copy as long
+            return;
+        }
+        byte[] phrasePcm = cache.get(PhraseCache.Key.of(timeline, from, to, span, af),
+                () -> renderEvents(timeline, from, to, new byte[span], start));
+        System.arraycopy(phrasePcm, 0, pcm, (int) start, span);
+    }
+
+    /**
+     * Renders a run of events into a buffer.
+     * @param timeline The compiled song.
+     * @param from First event to render.
+     * @param to One past the last event to render.
+     * @param out The buffer to render into.
+     * @param startFrame The song frame out[0] stands for.
+     * @return The buffer, for convenience.
+     */
+    private static byte[] renderEvents(Timeline timeline, int from, int to, byte[] out, long startFrame) {
+        final Note[] notes = Note.values();
+        int i = from;
+        while (i < to) {
+            int chordEnd = i + 1;
+            while (chordEnd < to && timeline.onsetFrames[chordEnd] == timeline.onsetFrames[i]) {
+                chordEnd++;
+            }
+            int position = (int) (timeline.onsetFrames[i] - startFrame);
+            if (chordEnd == i + 1) {
+                renderNote(notes[timeline.memberIndexes[i]], timeline.lengthFrames[i], out, position);
+            } else {
+                renderChord(timeline, i, chordEnd, out, position);
+            }
+            i = chordEnd;
+        }
+        return out;
+    }
+
+    /**
+     * Renders one note, envelope and all, into a buffer.
+     * @param note The note to render.
+     * @param lengthFrames How many frames it sounds for.
+     * @param out The buffer to render into.
+     * @param position Where in the buffer the note starts.
+     * @return The buffer, for convenience.
+     */
+    static byte[] renderNote(Note note, int lengthFrames, byte[] out, int position) {
+        note.oscillator().render(out, position, lengthFrames);
+        MixKernel.applyEnvelope(out, position, lengthFrames);
+        return out;
+    }
+
+    /**
+     * Renders one note, envelope and all, into a buffer at any sample rate.
+     * @param note The note to render.
+     * @param lengthFrames How many frames it sounds for.
+     * @param sampleRate The sample rate to render at.
+     * @param out The buffer to render into.
+     * @param position Where in the buffer the note starts.
+     * @return The buffer, for convenience.
+     */
+    static byte[] renderNote(Note note, int lengthFrames, int sampleRate, byte[] out, int position) {
+        if (sampleRate == Note.SAMPLE_RATE) {
+            return renderNote(note, lengthFrames, out, position);
+        }
+        new Oscillator(note.frequency(), sampleRate).render(out, position, lengthFrames);
+        MixKernel.applyEnvelope(out, position, lengthFrames);
+        return out;
+    }
+
+    /**
+     * Renders the events of one chord (all starting at the same frame) by summing them a block at a time.
+     * @param timeline The compiled song.
+     * @param from First event of the chord.
+     * @param to One past the last event of the chord.
+     * @param pcm The buffer to render into.
+     * @param position The frame the chord starts at.
+     */
+    private static void renderChord(Timeline timeline, int from, int to, byte[] pcm, int position) {
+        final Note[] notes = Note.values();
+        Oscillator[] oscillators = new Oscillator[to - from];
+        int longest = 0;
+        for (int e = from; e < to; e++) {
+            oscillators[e - from] = notes[timeline.memberIndexes[e]].oscillator();
+            longest = Math.max(longest, timeline.lengthFrames[e]);
+        }
+        int[] mix = new int[Mixer.BLOCK_FRAMES];
+        int[] voice = new int[Mixer.BLOCK_FRAMES];
+        byte[] out = new byte[Mixer.BLOCK_FRAMES];
+        for (int done = 0; done < longest; done += Mixer.BLOCK_FRAMES) {
+            int frames = Math.min(Mixer.BLOCK_FRAMES, longest - done);
+            Arrays.fill(mix, 0, frames, 0);
+            for (int e = from; e < to; e++) {
+                int remaining = timeline.lengthFrames[e] - done;
+                if (remaining > 0) {
+                    int voiceFrames = Math.min(frames, remaining);
+                    oscillators[e - from].render(voice, 0, voiceFrames);
+                    MixKernel.mixVoice(mix, 0, voice, voiceFrames, done, timeline.lengthFrames[e]);
+                }
+            }
+            MixKernel.clip(mix, out, frames);
+            System.arraycopy(out, 0, pcm, position + done, frames);
+        }
+    }
+
+    /**
+     * Renders the song and writes it out to a file.
+     * Files ending in .wav get a WAV header, anything else is written as raw PCM.
+     * @param songNotes List of notes in the song.
+     * @param outFile The file to write to.
+     * @throws IOException If the file can't be written.
+     */
+    public void renderToFile(List<BellNote> songNotes, File outFile) throws IOException {
+        renderToFile(Timeline.compile(Score.of(songNotes), Timeline.DEFAULT_TEMPO_BPM, Note.SAMPLE_RATE), outFile);
+    }
+
+    /**
+     * Renders a compiled Timeline and writes it out to a file.
+     * Files ending in .wav get a WAV header, anything else is written as raw PCM.
+     * @param timeline The compiled song.
+     * @param outFile The file to write to.
+     * @throws IOException If the file can't be written.
+     */
+    public void renderToFile(Timeline timeline, File outFile) throws IOException {
+        write(render(timeline, ForkJoinPool.commonPool()), outFile);
+    }
+
+    /**
+     * Writes rendered PCM out to a file.
+     * Files ending in .wav get a WAV header, anything else is written as raw PCM.
+     * @param pcm The rendered song.
+     * @param outFile The file to write to.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(byte[] pcm, File outFile) throws IOException {
+        if (outFile.getName().toLowerCase().endsWith(".wav")) {
+            long frames = pcm.length / af.getFrameSize();
+            try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), af, frames)) {
+                AudioSystem.write(stream, AudioFileFormat.Type.WAVE, outFile);
+            }
+        } else {
+            Files.write(outFile.toPath(), pcm);
+        }
+    }
+
+    /**
+     * PhraseTask - Renders a run of phrases, splitting it in half until the runs are small enough to just do.
+     */
+    private class PhraseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int PHRASES_PER_TASK = 4; // Small enough to spread out, big enough to be worth a task
+
+        private final Timeline timeline;
+        private final byte[] pcm;
+        private final int from; // First phrase
+        private final int to; // One past the last phrase
+
+        PhraseTask(Timeline timeline, byte[] pcm, int from, int to) {
+            this.timeline = timeline;
+            this.pcm = pcm;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PHRASES_PER_TASK) {
+                for (int phrase = from; phrase < to; phrase++) {
+                    renderPhrase(timeline, phrase, pcm);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PhraseTask(timeline, pcm, from, middle), new PhraseTask(timeline, pcm, middle, to));
+            }
+        }
+    }
+}
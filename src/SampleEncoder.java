@@ -0,0 +1,78 @@
+package src;
+
+/**
+ * SampleEncoder
+ * Turns a block of mixed samples into the bytes the line wants: clipped, scaled up to the sample size,
+ * and interleaved little-endian. There is one encoder per sample size, picked once when the Mixer is made,
+ * so the per-sample loop never has to ask what the format is.
+ * The mix is in 8 bit units (the wavetable's and the note cache's), so wider formats are the same 8 bit signal
+ * shifted up to full scale: they play at full volume on lines that want them, but have no more resolution than 8 bit.
+ */
+interface SampleEncoder {
+
+    /**
+     * Encodes a block.
+     * @param mix The mixed samples, one buffer per channel.
+     * @param out The buffer to write the encoded frames to.
+     * @param frames How many frames to encode.
+     */
+    void encode(int[][] mix, byte[] out, int frames);
+
+    /**
+     * Gets the encoder for a format.
+     * @param format The output format.
+     * @return An encoder writing that format's sample size.
+     */
+    static SampleEncoder of(PcmFormat format) {
+        return switch (format.bits) {
+            case 8 -> SampleEncoder::encode8;
+            case 16 -> SampleEncoder::encode16;
+            case 24 -> SampleEncoder::encode24;
+            default -> throw new IllegalArgumentException("No encoder for " + format);
+        };
+    }
+
+    /**
+     * Clips a mixed sample into the signed 8 bit range.
+     */
+    private static int clip(int sample) {
+        return Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, sample));
+    }
+
+    private static void encode8(int[][] mix, byte[] out, int frames) {
+        final int channels = mix.length;
+        for (int c = 0; c < channels; c++) {
+            int[] channel = mix[c];
+            for (int i = 0, o = c; i < frames; i++, o += channels) {
+                out[o] = (byte) clip(channel[i]);
+            }
+        }
+    }
+
+    private static void encode16(int[][] mix, byte[] out, int frames) {
+        final int channels = mix.length;
+        final int stride = 2 * channels;
+        for (int c = 0; c < channels; c++) {
+            int[] channel = mix[c];
+            for (int i = 0, o = 2 * c; i < frames; i++, o += stride) {
+                int sample = clip(channel[i]) << 8;
+                out[o] = (byte) sample;
+                out[o + 1] = (byte) (sample >> 8);
+            }
+        }
+    }
+
+    private static void encode24(int[][] mix, byte[] out, int frames) {
+        final int channels = mix.length;
+        final int stride = 3 * channels;
+        for (int c = 0; c < channels; c++) {
+            int[] channel = mix[c];
+            for (int i = 0, o = 3 * c; i < frames; i++, o += stride) {
+                int sample = clip(channel[i]) << 16;
+                out[o] = (byte) sample;
+                out[o + 1] = (byte) (sample >> 8);
+                out[o + 2] = (byte) (sample >> 16);
+            }
+        }
+    }
+}
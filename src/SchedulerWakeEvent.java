@@ -0,0 +1,59 @@
+package src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * SchedulerWakeEvent
+ * A Flight Recorder event spanning each wait of the Conductor for its next deadline, ending when it woke up.
+ * Its lateness is how far past the deadline the wake up came, which is where timing jitter starts.
+ * Only made while a recording has the event turned on, so the Conductor allocates nothing otherwise.
+ */
+@Name("bellchoir.SchedulerWake")
+@Label("Scheduler Wake Up")
+@Category("Bell Choir")
+@Description("The Conductor slept until its next deadline and woke up")
+class SchedulerWakeEvent extends jdk.jfr.Event {
+
+    static final EventType TYPE = EventType.getEventType(SchedulerWakeEvent.class);
+
+    @Label("Event")
+    @Description("The first Timeline event due at the deadline, or the note count when streaming")
+    int event;
+
+    @Label("Lateness")
+    @Description("How far past the deadline the Conductor woke up (negative if early)")
+    @Timespan(Timespan.NANOSECONDS)
+    long latenessNanos;
+
+    /**
+     * Starts timing a wait, if a recording wants it.
+     * @param event The event due at the deadline.
+     * @return The event, already begun, or null if no recording has it turned on.
+     */
+    static SchedulerWakeEvent begin(int event) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        SchedulerWakeEvent wake = new SchedulerWakeEvent();
+        wake.event = event;
+        wake.begin();
+        return wake;
+    }
+
+    /**
+     * Finishes timing a wait.
+     * @param wake The event from begin(), or null.
+     * @param latenessNanos How far past the deadline the wake up came.
+     */
+    static void end(SchedulerWakeEvent wake, long latenessNanos) {
+        if (wake != null) {
+            wake.latenessNanos = latenessNanos;
+            wake.commit();
+        }
+    }
+}
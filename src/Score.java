@@ -0,0 +1,89 @@
+package src;
+
+import java.util.List;
+
+/**
+ * Score interface - A song the Conductor can play note by note.
+ * It only hands out each note's pitch and length by position, so a score can live in a
+ * list of BellNotes or straight in a memory-mapped file (see BinaryScore) without the
+ * Conductor knowing the difference.
+ */
+interface Score {
+
+    /**
+     * Gets how many notes are in the score.
+     * @return The number of notes.
+     */
+    int size();
+
+    /**
+     * Gets the pitch of a note.
+     * @param index Position of the note in the song.
+     * @return The note.
+     */
+    Note noteAt(int index);
+
+    /**
+     * Gets the length of a note.
+     * @param index Position of the note in the song.
+     * @return The note's length.
+     */
+    NoteLength lengthAt(int index);
+
+    /**
+     * Tells whether a note is part of a chord with the note after it, so both start at the same time.
+     * @param index Position of the note in the song.
+     * @return True if the next note starts together with this one.
+     */
+    boolean chordWithNext(int index);
+
+    /**
+     * Gets the tempo changes written into the song.
+     * @return The score's tempo map, empty if the song never changes tempo.
+     */
+    TempoMap tempoMap();
+
+    /**
+     * Wraps a loaded list of notes as a Score with no tempo changes.
+     * @param songNotes List of notes in the song.
+     * @return A Score reading from the list.
+     */
+    static Score of(List<BellNote> songNotes) {
+        return of(songNotes, new TempoMap());
+    }
+
+    /**
+     * Wraps a loaded list of notes and its tempo changes as a Score.
+     * @param songNotes List of notes in the song.
+     * @param tempoMap Tempo changes in the song.
+     * @return A Score reading from the list.
+     */
+    static Score of(List<BellNote> songNotes, TempoMap tempoMap) {
+        return new Score() {
+            @Override
+            public int size() {
+                return songNotes.size();
+            }
+
+            @Override
+            public Note noteAt(int index) {
+                return songNotes.get(index).note;
+            }
+
+            @Override
+            public NoteLength lengthAt(int index) {
+                return songNotes.get(index).length;
+            }
+
+            @Override
+            public boolean chordWithNext(int index) {
+                return songNotes.get(index).chordWithNext;
+            }
+
+            @Override
+            public TempoMap tempoMap() {
+                return tempoMap;
+            }
+        };
+    }
+}
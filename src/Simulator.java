@@ -0,0 +1,306 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simulator
+ * Plays songs through the real choir (the Conductor, every Member on its own thread, and the Mixer) on a
+ * VirtualClock and into a CaptureLine, so a song's timing can be checked without waiting for it to play.
+ * Nothing waits for real time, so a song runs as fast as the threads can hand its notes along, typically
+ * hundreds of times faster than real time.
+ * Since every note is triggered at exactly its time and the Mixer starts it on that exact frame, the captured
+ * audio of a correct performance is identical, byte for byte, to what the Renderer makes of the same Timeline.
+ * Any difference means a note was lost, late, early or the wrong length somewhere in the pipeline, and the
+ * first differing frame says where.
+ * With checkAllocations() on, every song is played once to warm up and then again with an AllocationCheck,
+ * which fails if the choir allocates anything once the song is under way. A song that allocates is played
+ * a third time, and only counts as allocating if it does so again.
+ */
+public class Simulator {
+
+    private static final long MIXER_CHECK_MILLIS = 100; // How often to make sure the Mixer is still going
+
+    private final ExecutionMode mode; // How the Members are run, same as live
+    private final int tempoBPM; // Tempo the songs start at
+    private final Renderer renderer = new Renderer(Mixer.FORMAT); // What the performance should sound like
+    private int songs = 0;
+    private int mismatches = 0;
+    private boolean checkAllocations = false; // Also run an AllocationCheck on every song
+    private int allocatingSongs = 0; // Songs the AllocationCheck caught allocating
+
+    /**
+     * Constructor for the Simulator class.
+     * @param mode How the Members are run.
+     * @param tempoBPM The tempo songs start at.
+     */
+    public Simulator(ExecutionMode mode, int tempoBPM) {
+        this.mode = mode;
+        this.tempoBPM = tempoBPM;
+    }
+
+    /**
+     * Turns the allocation check on or off for the songs simulated from here on.
+     * @param check True to check that each song plays without allocating once it is under way.
+     */
+    public void checkAllocations(boolean check) {
+        this.checkAllocations = check;
+    }
+
+    /**
+     * Performs a song on a VirtualClock, through a fresh choir, and captures what the Mixer wrote.
+     * @param timeline The song.
+     * @return The captured audio, starting at the song's first frame.
+     * @throws InterruptedException If the thread is interrupted while the choir plays.
+     */
+    public byte[] perform(Timeline timeline) throws InterruptedException {
+        CaptureLine line = new CaptureLine(Mixer.FORMAT);
+        perform(timeline, line);
+        return line.toByteArray();
+    }
+
+    /**
+     * Performs a song on a VirtualClock, through a fresh choir, into the given line.
+     * @param timeline The song.
+     * @param line Where the Mixer writes.
+     * @throws InterruptedException If the thread is interrupted while the choir plays.
+     * @throws IllegalStateException If the Mixer stopped before the song was over.
+     */
+    private void perform(Timeline timeline, CaptureLine line) throws InterruptedException {
+        if (!checkAllocations) {
+            play(timeline, line, null);
+            return;
+        }
+        warmUp(timeline);
+        if (play(timeline, line, new AllocationCheck(false))
+                && play(timeline, new CaptureLine(Mixer.FORMAT, OutputStream.nullOutputStream()), new AllocationCheck(true))) {
+            allocatingSongs++; // It allocated both times, so it wasn't the JVM warming up
+        }
+    }
+
+    /**
+     * Plays a song once on a VirtualClock, through a fresh choir, throwing away what it sounds like.
+     * The JVM allocates a little on a thread the first few times it has that thread's code optimized, so
+     * an AllocationCheck only sees the choir's own allocations once the song has been played like this.
+     * @param timeline The song.
+     * @throws InterruptedException If the thread is interrupted while the choir plays.
+     */
+    public void warmUp(Timeline timeline) throws InterruptedException {
+        play(timeline, new CaptureLine(Mixer.FORMAT, OutputStream.nullOutputStream()), null);
+    }
+
+    /**
+     * Plays a song on a VirtualClock, through a fresh choir, into the given line.
+     * @param timeline The song.
+     * @param line Where the Mixer writes.
+     * @param check The allocation check to run on the performance, or null for none.
+     * @return True if the check caught the choir allocating.
+     * @throws InterruptedException If the thread is interrupted while the choir plays.
+     * @throws IllegalStateException If the Mixer stopped before the song was over.
+     */
+    private boolean play(Timeline timeline, CaptureLine line, AllocationCheck check) throws InterruptedException {
+        VirtualClock clock = new VirtualClock();
+        line.open();
+        line.start();
+        Mixer mixer = new Mixer(line, null, clock);
+
+        MemberPool pool = null;
+        if (mode == ExecutionMode.POOLED) {
+            pool = ExecutionMode.newMemberPool("Simulator-Pool-Thread");
+        }
+        List<Member> members = new ArrayList<>();
+        for (Note note : Note.values()) {
+            if (note != Note.REST) {
+                Member member = new Member("Member-" + note.name(), note);
+                members.add(member);
+                member.start(mode, pool);
+            }
+        }
+
+        Conductor conductor = new Conductor(members, timeline, mixer);
+        conductor.startAt(0); // The clock and the Mixer's first block both start at 0
+        if (check != null) {
+            conductor.checkAllocations(check);
+        }
+        conductor.start(); // Before the Mixer, so the clock already knows to wait for it
+        mixer.start();
+        try {
+            while (conductor.isAlive()) {
+                conductor.join(MIXER_CHECK_MILLIS);
+                if (conductor.isAlive() && !mixer.isAlive()) {
+                    // Without the Mixer the clock never moves again, so the Conductor would wait forever
+                    conductor.interrupt();
+                    conductor.join();
+                    throw new IllegalStateException("The Mixer stopped part way through the song");
+                }
+            }
+            return conductor.isAllocating();
+        } finally {
+            mixer.finish();
+            mixer.joinThread();
+            for (Member member : members) {
+                member.stopPlaying();
+            }
+            for (Member member : members) {
+                member.joinThread();
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Performs a song on a VirtualClock and compares it with the Renderer's version of it.
+     * @param timeline The song.
+     * @return The first frame that differs, or -1 if the performance was exact.
+     * @throws InterruptedException If the thread is interrupted while the choir plays.
+     */
+    public long firstMismatch(Timeline timeline) throws InterruptedException {
+        Comparison comparison = new Comparison(renderer.render(timeline));
+        perform(timeline, new CaptureLine(Mixer.FORMAT, comparison)); // Checked as it is written, never kept
+        return comparison.firstMismatch();
+    }
+
+    /**
+     * Checks one song file, or every song in a directory, printing a line for each.
+     * @param path A text song, a binary score, or a directory of them.
+     * @throws IOException If the directory can't be read.
+     * @throws InterruptedException If the thread is interrupted while a song plays.
+     */
+    public void check(File path) throws IOException, InterruptedException {
+        if (!path.isDirectory()) {
+            checkFile(path);
+            return;
+        }
+        File[] files = path.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(".txt") || file.getName().endsWith(BinaryScore.EXTENSION)));
+        if (files == null) {
+            throw new IOException("Can't read the directory " + path);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            checkFile(file);
+        }
+    }
+
+    /**
+     * Checks one song file and prints whether its performance matched.
+     */
+    private void checkFile(File file) throws InterruptedException {
+        Score score;
+        try {
+            score = Tone.loadScore(file, Mixer.FORMAT);
+        } catch (IOException e) {
+            System.err.println("Error: Couldn't load " + file + ": " + e.getMessage());
+            return;
+        }
+        if (score == null) {
+            System.err.println("Skipped " + file + ", see the errors above.");
+            return;
+        }
+
+        Timeline timeline = Timeline.compile(score, tempoBPM, Note.SAMPLE_RATE);
+        long start = System.nanoTime();
+        long mismatch;
+        try {
+            mismatch = firstMismatch(timeline);
+        } catch (RuntimeException e) {
+            System.err.println("Error: Couldn't simulate " + file + ": " + e.getMessage());
+            return;
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        songs++;
+        double seconds = (double) timeline.totalFrames / Note.SAMPLE_RATE;
+        if (mismatch < 0) {
+            System.out.printf("OK %s: %d notes, %.1f s of music checked in %d ms.%n", file, timeline.size(), seconds, elapsedMs);
+        } else {
+            mismatches++;
+            int event = eventAt(timeline, mismatch);
+            System.out.printf("MISMATCH %s: first difference at frame %d (%.3f s in), %s.%n", file, mismatch,
+                    (double) mismatch / Note.SAMPLE_RATE, event < 0 ? "before the first note"
+                            : "during note " + event + " (" + Note.values()[timeline.memberIndexes[event]]
+                            + " from frame " + timeline.onsetFrames[event] + ")");
+        }
+    }
+
+    /**
+     * Finds the last note that started at or before a frame.
+     * @return The event index, or -1 if the frame is before the first note.
+     */
+    private static int eventAt(Timeline timeline, long frame) {
+        int event = -1;
+        for (int i = 0; i < timeline.size() && timeline.onsetFrames[i] <= frame; i++) {
+            event = i;
+        }
+        return event;
+    }
+
+    /**
+     * Comparison - Compares the audio the Mixer writes with what it should be, as it is written.
+     */
+    private static class Comparison extends OutputStream {
+        private final byte[] expected;
+        private long position = 0; // Frames compared so far
+        private long mismatch = -1; // First frame that differed
+
+        Comparison(byte[] expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int frames = (int) Math.max(0, Math.min(len, expected.length - position)); // Anything past the end is just the tail
+            if (mismatch < 0 && frames > 0) {
+                int at = Arrays.mismatch(expected, (int) position, (int) position + frames, b, off, off + frames);
+                if (at >= 0) {
+                    mismatch = position + at;
+                }
+            }
+            position += len;
+        }
+
+        /**
+         * Gets the first frame that differed, counting a performance that stopped short as differing where it stopped.
+         */
+        long firstMismatch() {
+            if (mismatch < 0 && position < expected.length) {
+                return position;
+            }
+            return mismatch;
+        }
+    }
+
+    /**
+     * Gets how many songs have been checked.
+     * @return The number of songs.
+     */
+    public int getSongs() {
+        return songs;
+    }
+
+    /**
+     * Gets how many of the songs checked allocated once they were under way, with the allocation check on.
+     * @return The number of songs that allocated.
+     */
+    public int getAllocatingSongs() {
+        return allocatingSongs;
+    }
+
+    /**
+     * Gets how many of the songs checked didn't match their render.
+     * @return The number of mismatched songs.
+     */
+    public int getMismatches() {
+        return mismatches;
+    }
+}
@@ -0,0 +1,312 @@
+package src;
+
+/**
+ * SongParser
+ * Checks and parses one line of a song file in a single pass.
+ * A line is a note name and a duration separated by whitespace, like "A4 4", a chord of several
+ * note names sharing one duration, like "C4 E4 G4 4", or a tempo change like "TEMPO 120"
+ * (quarter note beats per minute) that applies from the next note on.
+ * A duration is a note value from 1 (whole) down to 64, with up to two dots after it ("4." is a dotted quarter),
+ * and values can be tied together with '+' into one longer note, across as many measures as it takes ("1+1+2.").
+ * The parser walks the characters itself instead of splitting on a regex, and reports problems
+ * through lastError() instead of throwing, so a bad line costs no more than a good one.
+ * A SongParser keeps state between calls, so each thread should use its own.
+ */
+class SongParser {
+
+    private static final Note[] NOTES = Note.values();
+    private static final String TEMPO = "TEMPO";
+
+    private String lastError = null; // Why the last line was rejected, null if it was fine
+    private int lastErrorColumn = 0; // Where in the line the problem is (1 based), 0 if the line was fine
+    private int lastTempo = 0; // Tempo set by the last line if it was a tempo change, 0 otherwise
+    private BellNote[] chord = new BellNote[4]; // Notes of the last line, grows if a chord needs more room
+    private int chordSize = 0; // How many notes the last line had
+
+    /**
+     * Checks and parses one line of a song.
+     * For a chord, every note but the last is marked chordWithNext, so it starts together with the note after it.
+     * @param line The line to parse.
+     * @return The first (usually only) parsed note, see chordSize() and chordNote() for the rest of a chord.
+     *         Null if the line is invalid (see lastError()) or a tempo change (see lastTempo()).
+     */
+    BellNote parse(String line) {
+        lastError = null;
+        lastErrorColumn = 0;
+        lastTempo = 0;
+        chordSize = 0;
+        final int end = line.length();
+
+        // Find the first token (the note)
+        int noteStart = skipWhitespace(line, 0, end);
+        int noteEnd = skipToken(line, noteStart, end);
+        // Find the second token (the duration, or the next note of a chord)
+        int durationStart = skipWhitespace(line, noteEnd, end);
+        int durationEnd = skipToken(line, durationStart, end);
+        // See if there is anything after it
+        int rest = skipWhitespace(line, durationEnd, end);
+
+        if (noteStart == noteEnd || durationStart == durationEnd) {
+            lastError = "Invalid format (must be 'NOTE DURATION'): " + line;
+            lastErrorColumn = durationStart + 1; // Where the missing token should have been
+            return null;
+        }
+        if (rest != end) {
+            return parseChord(line, noteStart, end);
+        }
+
+        // A tempo change instead of a note
+        if (noteEnd - noteStart == TEMPO.length() && line.regionMatches(noteStart, TEMPO, 0, TEMPO.length())) {
+            int bpm = durationOf(line, durationStart, durationEnd);
+            if (!TempoMap.isValidBpm(bpm)) {
+                lastError = "Invalid tempo '" + line.substring(durationStart, durationEnd) + "' in line: " + line;
+                lastErrorColumn = durationStart + 1;
+            } else {
+                lastTempo = bpm;
+            }
+            return null;
+        }
+
+        // Validate the note
+        Note note = noteOf(line, noteStart, noteEnd);
+        if (note == null) {
+            lastError = "Invalid note '" + line.substring(noteStart, noteEnd) + "' in line: " + line;
+            lastErrorColumn = noteStart + 1;
+            return null;
+        }
+
+        // Validate the duration
+        NoteLength length = lengthOf(line, durationStart, durationEnd);
+        if (length == null) {
+            lastError = "Invalid duration '" + line.substring(durationStart, durationEnd) + "' in line: " + line;
+            lastErrorColumn = durationStart + 1;
+            return null;
+        }
+
+        chord[0] = new BellNote(note, length);
+        chordSize = 1;
+        return chord[0];
+    }
+
+    /**
+     * Checks and parses a line holding more than two tokens, which has to be a chord: note names, then one duration.
+     * @param line The line to parse.
+     * @param start Where the first note name starts.
+     * @param end Where the line ends.
+     * @return The first note of the chord, or null if the line is invalid (see lastError()).
+     */
+    private BellNote parseChord(String line, int start, int end) {
+        // The duration is the last token, everything before it should be a note
+        int durationEnd = end;
+        while (Character.isWhitespace(line.charAt(durationEnd - 1))) {
+            durationEnd--;
+        }
+        int durationStart = durationEnd;
+        while (!Character.isWhitespace(line.charAt(durationStart - 1))) {
+            durationStart--;
+        }
+
+        // Check every note before building any BellNotes, so a bad line costs no more than it has to
+        int notes = 0;
+        for (int tokenStart = start; tokenStart < durationStart; tokenStart = skipWhitespace(line, tokenStart, end)) {
+            int tokenEnd = skipToken(line, tokenStart, end);
+            Note note = noteOf(line, tokenStart, tokenEnd);
+            if (note == null) {
+                lastError = "Invalid note '" + line.substring(tokenStart, tokenEnd) + "' in line: " + line;
+                lastErrorColumn = tokenStart + 1;
+                return null;
+            }
+            if (note == Note.REST) {
+                lastError = "A chord can't contain REST: " + line;
+                lastErrorColumn = tokenStart + 1;
+                return null;
+            }
+            notes++;
+            tokenStart = tokenEnd;
+        }
+
+        NoteLength length = lengthOf(line, durationStart, durationEnd);
+        if (length == null) {
+            lastError = "Invalid duration '" + line.substring(durationStart, durationEnd) + "' in line: " + line;
+            lastErrorColumn = durationStart + 1;
+            return null;
+        }
+
+        if (notes > chord.length) {
+            chord = new BellNote[Math.max(notes, chord.length * 2)];
+        }
+        int tokenStart = start;
+        for (int i = 0; i < notes; i++) {
+            int tokenEnd = skipToken(line, tokenStart, end);
+            chord[i] = new BellNote(noteOf(line, tokenStart, tokenEnd), length, i < notes - 1);
+            tokenStart = skipWhitespace(line, tokenEnd, end);
+        }
+        chordSize = notes;
+        return chord[0];
+    }
+
+    /**
+     * Gets how many notes the last line passed to parse() held.
+     * @return 1 for a single note, more for a chord, 0 if the line was invalid or a tempo change.
+     */
+    int chordSize() {
+        return chordSize;
+    }
+
+    /**
+     * Gets one of the notes of the last line passed to parse(), in the order they were written.
+     * @param index Which note, from 0 up to chordSize() - 1.
+     * @return The note.
+     */
+    BellNote chordNote(int index) {
+        return chord[index];
+    }
+
+    /**
+     * Gets the reason the last line passed to parse() was rejected.
+     * @return The error message, or null if the last line was valid.
+     */
+    String lastError() {
+        return lastError;
+    }
+
+    /**
+     * Gets where in the line the reason the last line was rejected is.
+     * @return The column the bad (or missing) token starts at, counting from 1, or 0 if the last line was valid.
+     */
+    int lastErrorColumn() {
+        return lastErrorColumn;
+    }
+
+    /**
+     * Gets the tempo set by the last line passed to parse(), if it was a tempo change.
+     * @return The tempo in quarter note beats per minute, or 0 if the last line wasn't a tempo change.
+     */
+    int lastTempo() {
+        return lastTempo;
+    }
+
+    /**
+     * Looks up a note by its exact name within part of a line.
+     * @param line The line holding the name.
+     * @param start Where the name starts.
+     * @param end Where the name ends (exclusive).
+     * @return The matching note, or null if there isn't one.
+     */
+    static Note noteOf(String line, int start, int end) {
+        int length = end - start;
+        for (Note note : NOTES) {
+            String name = note.name();
+            if (name.length() == length && line.regionMatches(start, name, 0, length)) {
+                return note;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a duration (a whole number greater than zero) within part of a line.
+     * @param line The line holding the number.
+     * @param start Where the number starts.
+     * @param end Where the number ends (exclusive).
+     * @return The duration, or -1 if it isn't a valid number greater than zero.
+     */
+    static int durationOf(String line, int start, int end) {
+        if (start < end && line.charAt(start) == '+') {
+            start++; // Integer.parseInt allowed a leading plus, so we do too
+        }
+        if (start == end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value > 1_000_000) {
+                return -1; // Far too large to be a real duration, and keeps us clear of overflow
+            }
+        }
+        return value > 0 ? value : -1;
+    }
+
+    /**
+     * Reads a duration within part of a line: note values, each maybe dotted, tied together with '+'.
+     * @param line The line holding the duration.
+     * @param start Where the duration starts.
+     * @param end Where the duration ends (exclusive).
+     * @return The length, or null if it isn't a valid duration or is longer than NoteLength.MAX_MEASURES.
+     */
+    static NoteLength lengthOf(String line, int start, int end) {
+        if (start < end && line.charAt(start) == '+') {
+            start++; // Integer.parseInt allowed a leading plus, so we do too
+        }
+        int ticks = 0;
+        int partStart = start;
+        while (partStart <= end) {
+            int partEnd = partStart;
+            while (partEnd < end && line.charAt(partEnd) != '+') {
+                partEnd++;
+            }
+            int part = ticksOf(line, partStart, partEnd);
+            if (part < 0) {
+                return null;
+            }
+            ticks += part;
+            if (ticks > NoteLength.MAX_TICKS) {
+                return null;
+            }
+            partStart = partEnd + 1; // Past the '+', or past the end
+        }
+        return NoteLength.of(ticks);
+    }
+
+    /**
+     * Reads one note value with its dots, like "8" or "4." or "2..".
+     * @return How many ticks it lasts, or -1 if it isn't a note value.
+     */
+    private static int ticksOf(String line, int start, int end) {
+        int dots = 0;
+        while (end > start && line.charAt(end - 1) == '.' && dots < 2) {
+            end--;
+            dots++;
+        }
+        int ticks = switch (durationOf(line, start, end)) {
+            case 1 -> NoteLength.TICKS_PER_MEASURE;
+            case 2 -> NoteLength.TICKS_PER_MEASURE / 2;
+            case 4 -> NoteLength.TICKS_PER_MEASURE / 4;
+            case 8 -> NoteLength.TICKS_PER_MEASURE / 8;
+            case 16 -> NoteLength.TICKS_PER_MEASURE / 16;
+            case 32 -> NoteLength.TICKS_PER_MEASURE / 32;
+            case 64 -> NoteLength.TICKS_PER_MEASURE / 64;
+            default -> -1;
+        };
+        if (ticks < 0) {
+            return -1;
+        }
+        // Each dot adds half of what came before it
+        return ticks + (dots > 0 ? ticks / 2 : 0) + (dots > 1 ? ticks / 4 : 0);
+    }
+
+    /**
+     * Finds the next character that isn't whitespace.
+     */
+    private static int skipWhitespace(String line, int from, int end) {
+        while (from < end && Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Finds the end of the token starting at from.
+     */
+    private static int skipToken(String line, int from, int end) {
+        while (from < end && !Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+}
@@ -0,0 +1,113 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * SongStreamer
+ * Reads a song file on its own thread and feeds the notes to the Conductor as they are parsed.
+ * The Conductor can start playing as soon as the first note is in the queue, so the wait before
+ * the first note doesn't depend on how long the file is. The queue is bounded, so a huge file
+ * never sits in memory all at once: the streamer just waits whenever it gets too far ahead.
+ * Since the song is already playing, bad lines can't reject the whole song like Tone.loadSong does;
+ * they are reported with their line number and skipped.
+ */
+public class SongStreamer extends Thread {
+
+    public static final int QUEUE_CAPACITY = 1024; // How many parsed notes can wait for the Conductor.
+    // Put on the queue after the last note so the Conductor knows the song is over (compared by identity)
+    public static final BellNote END_OF_SONG = new BellNote(Note.REST, NoteLength.WHOLE);
+
+    private final File file; // The song file to read.
+    private final BlockingQueue<BellNote> notes = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final TempoMap tempoMap = new TempoMap(); // Filled in before the notes it applies to are queued
+    private volatile int skippedLines = 0; // Lines that were invalid and left out
+
+    /**
+     * Constructor for the SongStreamer class.
+     * @param file The song file to read.
+     */
+    public SongStreamer(File file) {
+        super("SongStreamer-Thread");
+        this.file = file;
+        setDaemon(true); // Never keep the JVM alive if the performance ends early
+    }
+
+    /**
+     * Gets the queue the parsed notes are fed into. Always ends with END_OF_SONG.
+     * @return The queue for the Conductor to take notes from.
+     */
+    public BlockingQueue<BellNote> getNotes() {
+        return notes;
+    }
+
+    /**
+     * Gets the tempo changes found so far. A change is always added before the first note it applies to
+     * is queued, so the Conductor sees it in time.
+     * @return The song's tempo map.
+     */
+    public TempoMap getTempoMap() {
+        return tempoMap;
+    }
+
+    /**
+     * Gets how many lines were invalid and left out of the song.
+     * @return The number of skipped lines.
+     */
+    public int getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Overrides the run method of the Thread class.
+     * Reads, checks and parses the file one line at a time, handing each note over as soon as it is ready.
+     */
+    @Override
+    public void run() {
+        SongParser parser = new SongParser();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            int noteIndex = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                BellNote bellNote = parser.parse(line);
+                if (bellNote != null) {
+                    for (int i = 0; i < parser.chordSize(); i++) {
+                        notes.put(parser.chordNote(i)); // Waits here if the Conductor is far behind
+                        noteIndex++;
+                    }
+                } else if (parser.lastTempo() > 0) {
+                    tempoMap.addChange(noteIndex, parser.lastTempo());
+                } else {
+                    skippedLines++;
+                    System.err.println("Skipping line " + lineNumber + ": " + parser.lastError());
+                }
+            }
+            notes.put(END_OF_SONG); // That's the whole song
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+            endSongEarly();
+        } catch (InterruptedException e) {
+            System.err.println(getName() + " interrupted while streaming. Stopping.");
+            Thread.currentThread().interrupt();
+            endSongEarly();
+        }
+    }
+
+    /**
+     * Tells the Conductor the song is over when reading stopped part way.
+     * Notes that haven't been played yet are thrown away if that's what it takes to fit the end marker in.
+     */
+    private void endSongEarly() {
+        if (!notes.offer(END_OF_SONG)) {
+            notes.clear();
+            notes.offer(END_OF_SONG);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * SongValidator
+ * Checks every song file under a directory with the same rules Tone.loadSong uses, in parallel,
+ * and reports each problem as one line of JSON as soon as it is found:
+ *   {"file":"songs/bad.txt","line":5,"column":4,"reason":"Invalid note 'X4' in line: X4 4"}
+ * Lines and columns count from 1. Problems with a file as a whole (it can't be read, or has no notes)
+ * are reported on line 0, column 0.
+ * Memory use doesn't depend on the size of the corpus: the directory is walked lazily, only a few
+ * files are queued ahead of the workers at a time, and nothing is collected, every error goes
+ * straight to the output.
+ */
+public class SongValidator {
+
+    private final PrintStream out; // Where the JSON lines go, one println per error so lines never interleave
+    private final int threads; // How many files are checked at once
+    private final AtomicLong files = new AtomicLong(); // Files checked
+    private final AtomicLong badFiles = new AtomicLong(); // Files with at least one error
+    private final AtomicLong errors = new AtomicLong(); // Errors found
+
+    /**
+     * Constructor for the SongValidator class.
+     * @param out Where to write the JSON lines.
+     * @param threads How many files to check at once.
+     */
+    public SongValidator(PrintStream out, int threads) {
+        this.out = out;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Checks every song (.txt file) under a directory, or a single song file.
+     * Returns once every file has been checked and reported.
+     * @param root The directory to walk, or a single file.
+     * @throws IOException If the directory can't be walked.
+     * @throws InterruptedException If the thread is interrupted while waiting on the workers.
+     */
+    public void validateTree(Path root) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "Validator-Thread");
+            thread.setDaemon(true); // Never keep the JVM alive just for the workers
+            return thread;
+        });
+        Semaphore queued = new Semaphore(threads * 2); // Files walked but not yet checked, keeps the walk just ahead
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!Files.isRegularFile(path) || !path.getFileName().toString().endsWith(".txt")) {
+                    continue;
+                }
+                queued.acquire();
+                workers.execute(() -> {
+                    try {
+                        validateFile(path);
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // A directory went missing or couldn't be read part way through the walk
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Checks one song file and reports every error in it.
+     * @param file The song file.
+     */
+    void validateFile(Path file) {
+        files.incrementAndGet();
+        SongParser parser = new SongParser();
+        long fileErrors = 0;
+        int notes = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (parser.parse(line) != null) {
+                    notes++;
+                } else if (parser.lastTempo() == 0) {
+                    report(file, lineNumber, parser.lastErrorColumn(), parser.lastError());
+                    fileErrors++;
+                }
+            }
+            if (fileErrors == 0 && notes == 0) {
+                report(file, 0, 0, "Song has no notes");
+                fileErrors++;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            report(file, 0, 0, "Can't read file: " + e.getMessage());
+            fileErrors++;
+        }
+        if (fileErrors > 0) {
+            badFiles.incrementAndGet();
+            errors.addAndGet(fileErrors);
+        }
+    }
+
+    /**
+     * Writes one error as a line of JSON.
+     */
+    private void report(Path file, int line, int column, String reason) {
+        out.println("{\"file\":" + quote(file.toString()) + ",\"line\":" + line + ",\"column\":" + column
+                + ",\"reason\":" + quote(reason) + "}");
+    }
+
+    /**
+     * Turns a string into a JSON string literal.
+     * @param text The string.
+     * @return The string in quotes, with anything JSON doesn't allow escaped.
+     */
+    static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Gets how many files were checked.
+     * @return The number of files.
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * Gets how many files had at least one error.
+     * @return The number of invalid files.
+     */
+    public long getBadFiles() {
+        return badFiles.get();
+    }
+
+    /**
+     * Gets how many errors were found across every file.
+     * @return The number of errors.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+}
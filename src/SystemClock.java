@@ -0,0 +1,35 @@
+package src;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SystemClock
+ * Real time, straight from System.nanoTime().
+ * Waiting parks the thread until the deadline is close, then spins for the last stretch, since
+ * parkNanos can oversleep by more than a millisecond on some systems.
+ */
+class SystemClock implements Clock {
+
+    // Below this, busy-wait instead of parking (parkNanos can oversleep by ~1ms on some systems)
+    private static final long SPIN_THRESHOLD_NANOS = 1_000_000L;
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrupted while waiting for a deadline.");
+            }
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
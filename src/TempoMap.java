@@ -0,0 +1,80 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * TempoMap
+ * Records where in a song the tempo changes. Each change takes effect from a given note onwards.
+ * A song without any changes plays at the Conductor's starting tempo the whole way through.
+ * Changes are only ever added in song order by one thread (the loader or the SongStreamer), while
+ * another thread may already be reading the earlier ones, so the count is published last.
+ */
+public class TempoMap {
+
+    public static final int MIN_BPM = 1;
+    public static final int MAX_BPM = 1000;
+
+    private int[] noteIndexes = new int[4]; // Note each change starts at, in song order
+    private int[] bpms = new int[4]; // Tempo from that note onwards
+    private volatile int count = 0; // Published after the arrays are written
+
+    /**
+     * Adds a tempo change. Changes must be added in song order.
+     * @param noteIndex Position of the first note played at the new tempo.
+     * @param bpm The new tempo in quarter note beats per minute.
+     */
+    public void addChange(int noteIndex, int bpm) {
+        int n = count;
+        if (n > 0 && noteIndex < noteIndexes[n - 1]) {
+            throw new IllegalArgumentException("Tempo changes must be added in song order");
+        }
+        if (n == noteIndexes.length) {
+            // Readers may still hold the old arrays, which keep the same (valid) first n entries
+            int[] grownIndexes = Arrays.copyOf(noteIndexes, n * 2);
+            int[] grownBpms = Arrays.copyOf(bpms, n * 2);
+            grownIndexes[n] = noteIndex;
+            grownBpms[n] = bpm;
+            noteIndexes = grownIndexes;
+            bpms = grownBpms;
+        } else {
+            noteIndexes[n] = noteIndex;
+            bpms[n] = bpm;
+        }
+        count = n + 1; // Publish
+    }
+
+    /**
+     * Gets how many tempo changes there are.
+     * @return The number of changes.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the note a tempo change starts at.
+     * @param change Which change, in song order.
+     * @return Position of the first note played at that tempo.
+     */
+    public int noteIndexAt(int change) {
+        return noteIndexes[change];
+    }
+
+    /**
+     * Gets the tempo a change switches to.
+     * @param change Which change, in song order.
+     * @return The tempo in quarter note beats per minute.
+     */
+    public int bpmAt(int change) {
+        return bpms[change];
+    }
+
+    /**
+     * Checks whether a tempo is one we can play.
+     * @param bpm The tempo in quarter note beats per minute.
+     * @return True if the tempo is between MIN_BPM and MAX_BPM.
+     */
+    public static boolean isValidBpm(int bpm) {
+        return bpm >= MIN_BPM && bpm <= MAX_BPM;
+    }
+}
@@ -0,0 +1,181 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Timeline
+ * A song compiled down to exactly what the Conductor needs to do and when.
+ * All of the tempo math, note length lookups and member lookups happen once, up front, in compile().
+ * What is left is a flat list of events in primitive arrays: when each note starts (as a frame
+ * offset, and as nanoseconds for the Conductor's clock), which member plays it, and for how many
+ * frames. Rests don't need an event at all, they are simply the gaps between onsets.
+ * The notes of a chord become events with the same onset, next to each other in the arrays.
+ * Events are also grouped into phrases, one per measure, so repeated passages can be recognised.
+ */
+public class Timeline {
+
+    private static final int BEATS_PER_MEASURE = 4; // Beats are quarter notes
+    private static final double MEASURE_EPSILON = 1e-9; // Lets note lengths add up to a whole measure despite rounding
+    // The tempo songs have always played at: one measure every Note.MEASURE_LENGTH_SEC seconds
+    public static final int DEFAULT_TEMPO_BPM = BEATS_PER_MEASURE * 60 / Note.MEASURE_LENGTH_SEC;
+
+    final long[] onsetFrames; // Where each event starts, in frames from the start of the song
+    final long[] onsetNanos; // Where each event starts, in nanoseconds from the start of the song
+    final int[] memberIndexes; // Which member plays each event (the Note ordinal)
+    final int[] lengthFrames; // How many frames each event sounds for
+    final int size; // Number of events
+    final int[] phraseStarts; // First event of each phrase (a measure that has at least one event in it)
+    final long totalFrames; // Length of the whole song (including any rest at the end), in frames
+    final long totalNanos; // Length of the whole song, in nanoseconds
+    final int sampleRate; // Sample rate the frames are counted in
+
+    private Timeline(long[] onsetFrames, long[] onsetNanos, int[] memberIndexes, int[] lengthFrames,
+                     int[] phraseStarts, long totalFrames, int sampleRate) {
+        this.onsetFrames = onsetFrames;
+        this.onsetNanos = onsetNanos;
+        this.memberIndexes = memberIndexes;
+        this.lengthFrames = lengthFrames;
+        this.phraseStarts = phraseStarts;
+        this.size = onsetFrames.length;
+        this.totalFrames = totalFrames;
+        this.totalNanos = framesToNanos(totalFrames, sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Compiles a score into a timeline.
+     * @param score The notes of the song, and any tempo changes in it.
+     * @param startBpm The tempo the song starts at, until the score's tempo map says otherwise.
+     * @param sampleRate The sample rate to count frames in.
+     * @return The compiled timeline.
+     */
+    public static Timeline compile(Score score, int startBpm, int sampleRate) {
+        final int noteCount = score.size();
+        final TempoMap tempoMap = score.tempoMap();
+        final int changes = tempoMap.size();
+
+        // First pass: count the events, rests don't get one
+        int events = 0;
+        for (int i = 0; i < noteCount; i++) {
+            if (score.noteAt(i) != Note.REST) {
+                events++;
+            }
+        }
+
+        // Second pass: walk the song, keeping the clock in seconds so rounding never adds up
+        long[] onsets = new long[events];
+        long[] nanos = new long[events];
+        int[] memberIndexes = new int[events];
+        int[] lengths = new int[events];
+        int[] phraseStarts = new int[events];
+        int phrases = 0;
+        double measures = 0.0d; // Where the current note starts, in measures
+        long phrase = -1; // Measure the current phrase is in
+        double seconds = 0.0d;
+        int bpm = startBpm;
+        int nextChange = 0;
+        int event = 0;
+        for (int i = 0; i < noteCount; i++) {
+            while (nextChange < changes && tempoMap.noteIndexAt(nextChange) <= i) {
+                bpm = tempoMap.bpmAt(nextChange++);
+            }
+            long onset = Math.round(seconds * sampleRate);
+            double noteEnd = seconds + secondsFor(score.lengthAt(i), bpm);
+            long end = Math.round(noteEnd * sampleRate);
+
+            Note note = score.noteAt(i);
+            long measure = (long) Math.floor(measures + MEASURE_EPSILON);
+            if (note != Note.REST && measure != phrase) {
+                phraseStarts[phrases++] = event; // First event of a new measure starts a new phrase
+                phrase = measure;
+            }
+            if (!score.chordWithNext(i)) {
+                seconds = noteEnd; // The next note of a chord starts where this one does
+                measures += score.lengthAt(i).measures();
+            }
+
+            if (note != Note.REST) {
+                onsets[event] = onset;
+                nanos[event] = framesToNanos(onset, sampleRate);
+                memberIndexes[event] = note.ordinal();
+                lengths[event] = (int) Math.min(Integer.MAX_VALUE, end - onset);
+                event++;
+            }
+        }
+
+        return new Timeline(onsets, nanos, memberIndexes, lengths, Arrays.copyOf(phraseStarts, phrases),
+                Math.round(seconds * sampleRate), sampleRate);
+    }
+
+    /**
+     * Works out how long a note lasts at a given tempo.
+     * @param noteLength The length of the note.
+     * @param bpm The tempo in quarter note beats per minute.
+     * @return The duration in seconds.
+     */
+    static double secondsFor(NoteLength noteLength, int bpm) {
+        return noteLength.measures() * BEATS_PER_MEASURE * 60.0d / bpm;
+    }
+
+    /**
+     * Works out how many frames a note lasts at a given tempo.
+     * @param noteLength The length of the note.
+     * @param bpm The tempo in quarter note beats per minute.
+     * @param sampleRate The sample rate to count frames in.
+     * @return The duration in frames.
+     */
+    static int framesFor(NoteLength noteLength, int bpm, int sampleRate) {
+        return (int) Math.round(secondsFor(noteLength, bpm) * sampleRate);
+    }
+
+    /**
+     * Converts a frame count into nanoseconds.
+     */
+    static long framesToNanos(long frames, int sampleRate) {
+        return frames * 1_000_000_000L / sampleRate;
+    }
+
+    /**
+     * Gets the number of phrases in the timeline.
+     * @return The number of phrases.
+     */
+    int phraseCount() {
+        return phraseStarts.length;
+    }
+
+    /**
+     * Gets the first event of a phrase.
+     * @param phrase Which phrase.
+     * @return The index of its first event.
+     */
+    int phraseStart(int phrase) {
+        return phraseStarts[phrase];
+    }
+
+    /**
+     * Gets one past the last event of a phrase.
+     * @param phrase Which phrase.
+     * @return The index of the first event after it.
+     */
+    int phraseEnd(int phrase) {
+        return phrase + 1 < phraseStarts.length ? phraseStarts[phrase + 1] : size;
+    }
+
+    /**
+     * Gets the frame a phrase stops at: where the next phrase starts, or the end of the song.
+     * Every note of a phrase has finished by then.
+     * @param phrase Which phrase.
+     * @return The frame the phrase stops at.
+     */
+    long phraseEndFrame(int phrase) {
+        return phrase + 1 < phraseStarts.length ? onsetFrames[phraseStarts[phrase + 1]] : totalFrames;
+    }
+
+    /**
+     * Gets the number of events (notes that actually sound) in the timeline.
+     * @return The number of events.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -6,10 +6,15 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tone class - Main class to load and play a song using Members and a src.Conductor.
@@ -19,15 +24,44 @@ public class Tone {
     // List to store loaded song notes.
     private List<BellNote> loadedSong = new ArrayList<>();
 
+    // Tempo changes written into the loaded song.
+    private TempoMap loadedTempo = new TempoMap();
+
     // Audio format for playback.
     private final AudioFormat af;
 
     // List to store src.Member threads.
     private List<Member> members = new ArrayList<>();
 
+    // Shared pool the Members run on in POOLED mode (null otherwise).
+    private MemberPool memberPool = null;
+
+    // Longest write-ahead low latency mode can start with, the line's buffer is never more than a second.
+    private static final int MAX_LATENCY_MS = 1000;
+    private static final int MAX_PORT = 65535;
+
     /**
      * Main method - Entry point of the program.
-     * @param args Command line arguments (optional file path).
+     * @param args Command line arguments: the song file path, then any of
+     *             "--render FILE" (write the song to a file instead of playing it, or if the song path is a
+     *             directory, render every song in it into the directory FILE),
+     *             "--mode platform|virtual|pooled" (how the Members are run),
+     *             "--stream" (start playing while the file is still being read),
+     *             "--simulate" (play the song, or every song in the directory, through the choir on a simulated
+     *             clock and check the result frame by frame against a render of it) and
+     *             "--validate" (check every song under the path, a directory, and report errors as JSON lines) and
+     *             "--compile FILE" (compile the song into a binary score instead of playing it) and
+     *             "--tempo BPM" (the tempo the song starts at, in quarter note beats per minute) and
+     *             "--latency MS" (low latency mode, starting this far ahead of the line and adapting from there) and
+     *             "--daemon" (the song path is a queue directory, keep the choir warm and play every song dropped in it)
+     *             "--port N" (with --daemon, also take song paths on this port of the loopback address) and
+     *             "--format RATE/BITS/CHANNELS" (what to play through the line, like 44100/16/2, 8 or 16 or 24 bits,
+     *             mono or stereo. Renders and simulations stay 8 bit mono) and
+     *             "--check-alloc" (make sure nothing in the choir allocates once a loaded song is under way,
+     *             when playing or with --simulate).
+     *             Flight Recorder events for every note, block write and Conductor wake up are recorded
+     *             whenever the JVM runs with a recording, like -XX:StartFlightRecording.
+     *             A song path ending in ".bels" is loaded as a binary score.
      */
     public static void main(String[] args) { //
         final AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
@@ -38,33 +72,215 @@ public class Tone {
             return;
         }
         String filePath = args[0];
+        File renderFile = null;
+        File compileFile = null;
+        ExecutionMode mode = ExecutionMode.PLATFORM;
+        boolean stream = false;
+        boolean validate = false;
+        boolean simulate = false;
+        int tempoBPM = Timeline.DEFAULT_TEMPO_BPM;
+        int latencyMs = 0; // 0 keeps the line's whole one second buffer full
+        boolean daemon = false;
+        int port = 0; // 0 takes songs from the queue directory only
+        PcmFormat lineFormat = PcmFormat.DEFAULT; // What the Mixer writes to the line
+        boolean checkAlloc = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--render") && i + 1 < args.length) {
+                renderFile = new File(args[++i]);
+            } else if (args[i].equals("--mode") && i + 1 < args.length) {
+                mode = ExecutionMode.parse(args[++i]);
+                if (mode == null) {
+                    System.err.println("Error: Unknown mode '" + args[i] + "'. Use platform, virtual or pooled.");
+                    return;
+                }
+            } else if (args[i].equals("--compile") && i + 1 < args.length) {
+                compileFile = new File(args[++i]);
+            } else if (args[i].equals("--tempo") && i + 1 < args.length) {
+                tempoBPM = intOption(args[++i], TempoMap.MIN_BPM, TempoMap.MAX_BPM);
+                if (tempoBPM < 0) {
+                    System.err.println("Error: Invalid tempo '" + args[i] + "'. Use " + TempoMap.MIN_BPM + " to " + TempoMap.MAX_BPM + ".");
+                    return;
+                }
+            } else if (args[i].equals("--latency") && i + 1 < args.length) {
+                latencyMs = intOption(args[++i], 1, MAX_LATENCY_MS);
+                if (latencyMs < 0) {
+                    System.err.println("Error: Invalid latency '" + args[i] + "'. Use 1 to " + MAX_LATENCY_MS + " milliseconds.");
+                    return;
+                }
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                port = intOption(args[++i], 1, MAX_PORT);
+                if (port < 0) {
+                    System.err.println("Error: Invalid port '" + args[i] + "'. Use 1 to " + MAX_PORT + ".");
+                    return;
+                }
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                lineFormat = PcmFormat.parse(args[++i]);
+                if (lineFormat == null) {
+                    System.err.println("Error: Invalid format '" + args[i] + "'. Use RATE/BITS/CHANNELS, a rate of "
+                            + PcmFormat.MIN_SAMPLE_RATE + " to " + PcmFormat.MAX_SAMPLE_RATE + " Hz, 8, 16 or 24 bits and 1 or 2 channels.");
+                    return;
+                }
+            } else if (args[i].equals("--check-alloc")) {
+                checkAlloc = true;
+            } else if (args[i].equals("--daemon")) {
+                daemon = true;
+            } else if (args[i].equals("--stream")) {
+                stream = true;
+            } else if (args[i].equals("--simulate")) {
+                simulate = true;
+            } else if (args[i].equals("--validate")) {
+                validate = true;
+            } else {
+                System.err.println("Warning: Ignoring unknown argument '" + args[i] + "'.");
+            }
+        }
+
+        if (checkAlloc && !simulate && (daemon || stream)) {
+            System.err.println("Warning: --check-alloc only checks songs loaded up front, not streamed or daemon songs.");
+        }
+        if (lineFormat != PcmFormat.DEFAULT && (renderFile != null || simulate)) {
+            System.err.println("Warning: --format only applies to playback, renders and simulations are " + PcmFormat.DEFAULT + ".");
+        }
 
         try {
-            t.loadSong(filePath);
-            if (t.loadedSong == null) {
-                System.err.println("Error: Song loading failed! Path is null");
+            // Validate mode: check a whole directory tree of songs and report every error as JSON
+            if (validate) {
+                SongValidator validator = new SongValidator(System.out, Runtime.getRuntime().availableProcessors());
+                validator.validateTree(new File(filePath).toPath());
+                System.err.println("Validated " + validator.getFiles() + " song(s): " + validator.getBadFiles()
+                        + " invalid, " + validator.getErrors() + " error(s).");
                 return;
             }
-            if (t.loadedSong.isEmpty()) {
-                System.err.println("Error: Song loading failed! Check your pathing, cause there's nothing in here");
+
+            // Simulate mode: the whole choir on a virtual clock, checked against the Renderer
+            if (simulate) {
+                Simulator simulator = new Simulator(mode, tempoBPM);
+                simulator.checkAllocations(checkAlloc);
+                long start = System.nanoTime();
+                simulator.check(new File(filePath));
+                System.out.println("Simulated " + simulator.getSongs() + " song(s) in " + (System.nanoTime() - start) / 1_000_000
+                        + " ms: " + simulator.getMismatches() + " mismatch(es)."
+                        + (checkAlloc ? " " + simulator.getAllocatingSongs() + " song(s) allocated while playing." : ""));
                 return;
             }
 
-            t.startMembers(); // Creates and starts Member threads
+            // Batch render mode: every song in a directory, into another directory
+            if (renderFile != null && new File(filePath).isDirectory()) {
+                renderDirectory(new File(filePath), renderFile, tempoBPM, af);
+                return;
+            }
+
+            // Compile mode: turn the text song into a binary score and stop there
+            if (compileFile != null) {
+                int compiled = BinaryScore.compile(new File(filePath), compileFile);
+                if (compiled >= 0) {
+                    System.out.println("Compiled " + compiled + " notes to " + compileFile + ".");
+                }
+                return;
+            }
+
+            SongStreamer streamer = null;
+            Score score = null;
+            if (daemon) {
+                if (!new File(filePath).isDirectory()) {
+                    System.err.println("Error: The daemon needs a queue directory to take songs from: " + filePath);
+                    return;
+                }
+            } else if (stream && renderFile == null) {
+                File songFile = new File(filePath);
+                if (!songFile.isFile()) {
+                    System.err.println("Error: File not found or invalid.txt path: " + filePath);
+                    return;
+                }
+                streamer = new SongStreamer(songFile);
+                streamer.start(); // Starts parsing right away, the Conductor picks notes up as they come in
+            } else if (filePath.endsWith(BinaryScore.EXTENSION)) {
+                try {
+                    score = BinaryScore.load(new File(filePath)); // Mapped, nothing to parse
+                } catch (IOException e) {
+                    System.err.println("Error: Binary score loading failed! " + e.getMessage());
+                    return;
+                }
+                System.out.println("Binary score loaded successfully.");
+            } else {
+                t.loadSong(filePath);
+                if (t.loadedSong == null) {
+                    System.err.println("Error: Song loading failed! Path is null");
+                    return;
+                }
+                if (t.loadedSong.isEmpty()) {
+                    System.err.println("Error: Song loading failed! Check your pathing, cause there's nothing in here");
+                    return;
+                }
+                score = Score.of(t.loadedSong, t.loadedTempo);
+            }
+
+            // Offline render mode: skip the choir and the audio device entirely
+            if (renderFile != null) {
+                long start = System.nanoTime();
+                Renderer renderer = new Renderer(af);
+                renderer.renderToFile(Timeline.compile(score, tempoBPM, Note.SAMPLE_RATE), renderFile);
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("Rendered " + score.size() + " notes to " + renderFile + " in " + elapsedMs + " ms ("
+                        + renderer.getCache().getHits() + " phrase(s) reused, " + renderer.getCache().getMisses() + " synthesized).");
+                return;
+            }
+
+            if (checkAlloc && score != null && !daemon && streamer == null) {
+                // Lets the JVM finish optimizing the choir's code first, so the check only sees what the choir allocates
+                new Simulator(mode, tempoBPM).warmUp(Timeline.compile(score, tempoBPM, Note.SAMPLE_RATE));
+            }
+            ChoirMetrics.register(); // Lets jconsole or VisualVM watch the performance's timing
+            t.startMembers(mode); // Creates and starts the Members
             System.out.println("Begin performance!");
 
             Conductor conductor = null;
-            try (SourceDataLine line = AudioSystem.getSourceDataLine(af)) {
-                line.open(af, Note.SAMPLE_RATE); // Specify buffer size?
+            Mixer mixer = null;
+            WriteAheadController writeAhead = null;
+            final AudioFormat lineAf = lineFormat.toAudioFormat();
+            final int frameSize = lineFormat.frameSize();
+            try (SourceDataLine line = AudioSystem.getSourceDataLine(lineAf)) {
+                if (latencyMs > 0) {
+                    // Low latency: a small buffer, and the Mixer only keeps part of it filled
+                    int targetFrames = WriteAheadController.framesFor(latencyMs, lineFormat.sampleRate);
+                    line.open(lineAf, WriteAheadController.lineBufferFor(targetFrames, lineFormat.sampleRate) * frameSize);
+                    writeAhead = new WriteAheadController(targetFrames, line.getBufferSize() / frameSize, lineFormat.sampleRate);
+                } else {
+                    line.open(lineAf, lineFormat.sampleRate * frameSize); // A whole second of buffer, as far from an underrun as it gets
+                }
                 line.start();
 
-                conductor = new Conductor(t.members, 120, t.loadedSong, line); // Example BPM: 120
-                conductor.start(); // Start the Conductor thread
+                mixer = new Mixer(line, writeAhead); // The only thread that writes to the line
+                mixer.start();
+
+                if (daemon) {
+                    // The Members, the Mixer and the line stay up from one song to the next
+                    ChoirDaemon choirDaemon = new ChoirDaemon(t.members, mixer, tempoBPM, new File(filePath));
+                    if (port > 0) {
+                        choirDaemon.listen(port);
+                    }
+                    choirDaemon.run();
+                } else if (streamer != null) {
+                    conductor = new Conductor(t.members, tempoBPM, streamer.getNotes(), streamer.getTempoMap(), mixer);
+                } else {
+                    conductor = new Conductor(t.members, tempoBPM, score, mixer);
+                    if (checkAlloc) {
+                        conductor.checkAllocations(new AllocationCheck(true)); // One go, a live song can't be played again
+                    }
+                }
+                if (conductor != null) {
+                    conductor.start(); // Start the Conductor thread
 
-                conductor.join(); // Wait for Conductor thread to complete its run() method
+                    conductor.join(); // Wait for Conductor thread to complete its run() method
+                }
 
-                // Drain the line to ensure all buffered audio plays
+                // Let the mixer play out whatever is still sounding, then drain the line
+                mixer.finish();
+                mixer.joinThread();
                 line.drain();
+                if (writeAhead != null) {
+                    writeAhead.report();
+                }
 
             } catch (LineUnavailableException e) {
                 System.err.println("Audio line unavailable");
@@ -86,13 +302,27 @@ public class Tone {
                     }
                 }
 
+                long droppedNotes = 0;
+                long lateNotes = 0;
                 if (t.members != null) {
                     for (Member member : t.members) {
-                        if (member != null && member.isAlive()) { // Only join live threads
-                            member.joinThread(); // Wait for the member thread to finish
+                        if (member != null) {
+                            member.joinThread(); // Wait for the member to finish
+                            droppedNotes += member.getDroppedNotes();
+                            lateNotes += member.getLateNotes();
                         }
                     }
                 }
+                if (droppedNotes > 0 || lateNotes > 0) {
+                    System.err.println("Warning: " + droppedNotes + " note(s) were dropped and " + lateNotes + " played late.");
+                }
+                if (t.memberPool != null) {
+                    t.memberPool.shutdown();
+                }
+                if (mixer != null && mixer.isAlive()) {
+                    mixer.stopMixing();
+                    mixer.joinThread();
+                }
                 System.out.println("All Member threads joined. The performance has now concluded!");
             }
 
@@ -110,69 +340,109 @@ public class Tone {
     }
 
     /**
-     * Initializes Member threads, one for each Note (excluding REST).
+     * Renders every song in a directory (text songs and binary scores) to WAV files in another directory.
+     * Songs are rendered side by side on the common fork-join pool, and each song's phrases are spread
+     * across the same pool, so every core stays busy whether the batch is many short songs or a few long ones.
+     * All the songs share one PhraseCache, so a passage repeated across songs is only synthesized once.
+     * @param songDir The directory of songs.
+     * @param outDir The directory to write the WAV files to, created if needed.
+     * @param tempoBPM The tempo the songs start at.
+     * @param af AudioFormat the songs are rendered in.
+     * @throws IOException If a directory can't be read or created.
      */
-    private void startMembers() {
-        System.out.println("Initializing your choir...!");
-        // Assuming Note enum has values like C4, D4 etc.
-        for (Note note : Note.values()) {
-            if (note != Note.REST) { // Create a member for each playable note
-                Member member = new Member("Member-" + note.name(), note);
-                members.add(member);
-                member.start(); // START THE THREAD!
-            }
+    static void renderDirectory(File songDir, File outDir, int tempoBPM, AudioFormat af) throws IOException {
+        File[] songs = songDir.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(".txt") || file.getName().endsWith(BinaryScore.EXTENSION)));
+        if (songs == null) {
+            throw new IOException("Can't read the directory " + songDir);
         }
+        Arrays.sort(songs);
+        Files.createDirectories(outDir.toPath());
+
+        final long start = System.nanoTime();
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        final Renderer renderer = new Renderer(af);
+        final AtomicInteger rendered = new AtomicInteger();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (File song : songs) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    Score score = loadScore(song, af);
+                    if (score == null) {
+                        System.err.println("Skipped " + song + ", see the errors above.");
+                        return;
+                    }
+                    String name = song.getName();
+                    // song.txt becomes song.wav, song.bels becomes song.bels.wav so the two can't collide
+                    String base = name.endsWith(".txt") ? name.substring(0, name.length() - ".txt".length()) : name;
+                    File outFile = new File(outDir, base + ".wav");
+                    renderer.write(renderer.render(Timeline.compile(score, tempoBPM, Note.SAMPLE_RATE), pool), outFile);
+                    rendered.incrementAndGet();
+                    System.out.println("Rendered " + song + " to " + outFile + ".");
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error: Couldn't render " + song + ": " + e.getMessage());
+                }
+            }));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Rendered " + rendered.get() + " of " + songs.length + " songs in " + elapsedMs + " ms ("
+                + renderer.getCache().getHits() + " phrase(s) reused, " + renderer.getCache().getMisses() + " synthesized).");
     }
 
     /**
-     * Validates a line from the song file and returns an error message if invalid.txt.
-     * @param line Line to validate.
-     * @return Error message if invalid.txt, null if valid.
+     * Loads one song for batch rendering or the daemon, a binary score or a text song.
+     * @param song The song file.
+     * @param af AudioFormat of the Tone used to load text songs.
+     * @return The song, or null if it had errors (already printed).
+     * @throws IOException If a binary score can't be read.
      */
-    private String validateLine(String line) {
-        String[] parts = line.trim().split("\\s+");
-
-        if (parts.length != 2) {
-            return "Invalid format (must be 'NOTE DURATION'): " + line;
-        }
-
-        String noteStr = parts[0];
-        String durationStr = parts[1];
-
-        // Validate the note
-        if (!isValidNote(noteStr)) {
-            return "Invalid note '" + noteStr + "' in line: " + line;
+    static Score loadScore(File song, AudioFormat af) throws IOException {
+        if (song.getName().endsWith(BinaryScore.EXTENSION)) {
+            return BinaryScore.load(song);
         }
-
-        // Validate the duration
-        if (!isValidDuration(durationStr)) {
-            return "Invalid duration '" + durationStr + "' in line: " + line;
-        }
-
-        return null; // Line is valid
+        Tone tone = new Tone(af);
+        tone.loadSong(song.getPath());
+        return tone.loadedSong.isEmpty() ? null : Score.of(tone.loadedSong, tone.loadedTempo);
     }
 
     /**
-     * Checks if the given note exists in the Note enum.
+     * Reads the number given to a command line option, like a tempo or a port.
+     * @param value The option's value.
+     * @param min The smallest number the option takes, at least 0.
+     * @param max The largest number the option takes.
+     * @return The number, or -1 if it isn't a whole number from min to max.
      */
-    private boolean isValidNote(String noteStr) {
+    static int intOption(String value, int min, int max) {
         try {
-            Note.valueOf(noteStr);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
+            int number = Integer.parseInt(value.trim());
+            return number >= min && number <= max ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
     /**
-     * Checks if the given duration is a valid integer greater than zero.
+     * Initializes Members, one for each Note (excluding REST).
+     * @param mode How the Members are run: their own platform or virtual threads, or a shared pool.
      */
-    private boolean isValidDuration(String durationStr) {
-        try {
-            int duration = Integer.parseInt(durationStr);
-            return duration > 0;
-        } catch (NumberFormatException e) {
-            return false;
+    private void startMembers(ExecutionMode mode) {
+        System.out.println("Initializing your choir...!");
+        if (mode == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsAvailable()) {
+            System.err.println("Warning: This JVM has no virtual threads, running the choir on a shared pool instead.");
+            mode = ExecutionMode.POOLED;
+        }
+        if (mode == ExecutionMode.POOLED) {
+            memberPool = ExecutionMode.newMemberPool("Choir-Pool-Thread");
+        }
+        // Assuming Note enum has values like C4, D4 etc.
+        for (Note note : Note.values()) {
+            if (note != Note.REST) { // Create a member for each playable note
+                Member member = new Member("Member-" + note.name(), note);
+                members.add(member);
+                member.start(mode, memberPool); // START THE MEMBER!
+            }
         }
     }
 
@@ -182,6 +452,7 @@ public class Tone {
      */
     public void loadSong(String filePath) {
         loadedSong.clear();
+        loadedTempo = new TempoMap();
         List<String> errors = new ArrayList<>();
 
         File file = new File(filePath);
@@ -192,16 +463,22 @@ public class Tone {
             return;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
             String line;
             List<BellNote> tempSong = new ArrayList<>(); // Temporary storage
+            TempoMap tempTempo = new TempoMap();
+            SongParser parser = new SongParser(); // Checks and parses each line in one pass
 
             while ((line = reader.readLine()) != null) {
-                String error = validateLine(line);
-                if (error != null) {
-                    errors.add(error);
+                BellNote bellNote = parser.parse(line);
+                if (parser.lastTempo() > 0) {
+                    tempTempo.addChange(tempSong.size(), parser.lastTempo()); // Applies from the next note on
+                } else if (bellNote == null) {
+                    errors.add(parser.lastError());
                 } else {
-                    tempSong.add(parseBellNote(line));
+                    for (int i = 0; i < parser.chordSize(); i++) {
+                        tempSong.add(parser.chordNote(i)); // Just the one note, unless the line was a chord
+                    }
                 }
             }
 
@@ -216,78 +493,121 @@ public class Tone {
 
             // No errors, so load the song
             loadedSong.addAll(tempSong);
+            loadedTempo = tempTempo;
             System.out.println("Song loaded successfully.");
 
         } catch (IOException e) {
             System.err.println("Error reading file: " + e.getMessage());
         }
     }
-
-    /**
-     * Parses a valid line into a BellNote.
-     */
-    private BellNote parseBellNote(String line) {
-        String[] parts = line.trim().split("\\s+");
-        Note note = Note.valueOf(parts[0]);
-        int duration = Integer.parseInt(parts[1]);
-        NoteLength length = mapDurationToNoteLength(duration);
-        return new BellNote(note, length);
-    }
-
-    /**
-     * Maps duration to src.NoteLength enum.
-     * @param duration Duration value.
-     * @return src.NoteLength enum value.
-     */
-    private NoteLength mapDurationToNoteLength(int duration) {
-        return switch (duration) {
-            case 1 -> NoteLength.WHOLE;
-            case 2 -> NoteLength.HALF;
-            case 4 -> NoteLength.QUARTER;
-            case 8 -> NoteLength.EIGTH;
-            default -> null;
-        };
-    }
 }
 
 /**
  * BellNote class - Represents a musical note with length.
+ * A note marked chordWithNext starts at the same time as the note after it instead of before it.
  */
 class BellNote {
     final Note note;
     final NoteLength length;
+    final boolean chordWithNext;
 
     BellNote(Note note, NoteLength length) {
+        this(note, length, false);
+    }
+
+    BellNote(Note note, NoteLength length, boolean chordWithNext) {
         if (note == null || length == null) {
             throw new IllegalArgumentException("Invalid BellNote: note or length is null");
         }
         this.note = note;
         this.length = length;
+        this.chordWithNext = chordWithNext;
     }
 }
 
 /**
- * NoteLength enum - Represents the duration of a note.
+ * NoteLength - Represents the duration of a note, as a whole number of ticks of a measure.
+ * Any length the song format can write is a NoteLength: the plain values from a whole note down to a 64th,
+ * dotted and double dotted ones, and ties of any of them, up to MAX_MEASURES long.
+ * Lengths up to a few measures are made once and shared, so parsing a song doesn't make one per note.
  */
-enum NoteLength {
-    WHOLE(1.0f),
-    HALF(0.5f),
-    QUARTER(0.25f),
-    EIGTH(0.125f);
+final class NoteLength {
+    // Divides evenly by every note value down to a double dotted 64th, and by 3 for triplets
+    static final int TICKS_PER_MEASURE = 768;
+    static final int MAX_MEASURES = 256; // Longest a single note (ties and all) may be
+    static final int MAX_TICKS = MAX_MEASURES * TICKS_PER_MEASURE;
+    private static final NoteLength[] SHARED = new NoteLength[4 * TICKS_PER_MEASURE + 1]; // Made on first use
+
+    static final NoteLength WHOLE = of(TICKS_PER_MEASURE);
+    static final NoteLength HALF = of(TICKS_PER_MEASURE / 2);
+    static final NoteLength QUARTER = of(TICKS_PER_MEASURE / 4);
+    static final NoteLength EIGTH = of(TICKS_PER_MEASURE / 8);
+    static final NoteLength SIXTEENTH = of(TICKS_PER_MEASURE / 16);
+
+    private final int ticks;
+    private final double measures; // Fraction of a measure the note lasts
+
+    private NoteLength(int ticks) {
+        this.ticks = ticks;
+        this.measures = (double) ticks / TICKS_PER_MEASURE;
+    }
+
+    /**
+     * Gets the NoteLength for a number of ticks.
+     * @param ticks How long the note is, in TICKS_PER_MEASURE ticks to a measure.
+     * @return The length.
+     * @throws IllegalArgumentException If ticks is not from 1 to MAX_TICKS.
+     */
+    static NoteLength of(int ticks) {
+        if (ticks < 1 || ticks > MAX_TICKS) {
+            throw new IllegalArgumentException("Invalid note length: " + ticks + " ticks");
+        }
+        if (ticks >= SHARED.length) {
+            return new NoteLength(ticks);
+        }
+        NoteLength length = SHARED[ticks];
+        if (length == null) {
+            length = new NoteLength(ticks); // A race just makes an extra copy, they are all equal
+            SHARED[ticks] = length;
+        }
+        return length;
+    }
+
+    /**
+     * Gets how long the note is, in ticks.
+     * @return The length, TICKS_PER_MEASURE ticks to a measure.
+     */
+    int ticks() {
+        return ticks;
+    }
 
-    private final int timeMs;
+    /**
+     * Gets how long the note is, independent of tempo (see Timeline for turning it into time).
+     * @return The length as a fraction of a measure.
+     */
+    public double measures() {
+        return measures;
+    }
 
-    NoteLength(float length) {
-        timeMs = (int) (length * Note.MEASURE_LENGTH_SEC * 1000);
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof NoteLength length && length.ticks == ticks;
     }
 
-    public int timeMs() {
-        return timeMs;
+    @Override
+    public int hashCode() {
+        return ticks;
+    }
+
+    @Override
+    public String toString() {
+        return ticks + "/" + TICKS_PER_MEASURE;
     }
 }
 
 /**
  * Note enum - Represents musical notes.
+ * A Note only knows its pitch, the actual sound is made by an Oscillator reading the shared Wavetable.
  */
 enum Note {
     REST, A4, A4S, B4, C4, C4S, D4, D4S, E4, F4, F4S, G4, G4S, A5;
@@ -295,25 +615,26 @@ enum Note {
     public static final int SAMPLE_RATE = 48 * 1024;
     public static final int MEASURE_LENGTH_SEC = 1;
 
-    private static final double step_alpha = (2.0d * Math.PI) / SAMPLE_RATE;
-    private final double FREQUENCY_A_HZ = 440.0d;
-    private final double MAX_VOLUME = 127.0d;
-    private final byte[] sinSample = new byte[MEASURE_LENGTH_SEC * SAMPLE_RATE];
+    private final double frequency; // Pitch of the note in Hz (0 for REST)
 
     Note() {
         int n = this.ordinal();
-        if (n > 0) {
-            final double halfStepUpFromA = n - 1;
-            final double exp = halfStepUpFromA / 12.0d;
-            final double freq = FREQUENCY_A_HZ * Math.pow(2.0d, exp);
-            final double sinStep = freq * step_alpha;
-            for (int i = 0; i < sinSample.length; i++) {
-                sinSample[i] = (byte) (Math.sin(i * sinStep) * MAX_VOLUME);
-            }
-        }
+        this.frequency = n > 0 ? Wavetable.frequencyOf(n - 1) : 0.0d;
     }
 
-    public byte[] sample() {
-        return sinSample;
+    /**
+     * Gets the pitch of the note.
+     * @return The frequency in Hz, or 0 for a rest.
+     */
+    public double frequency() {
+        return frequency;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a fresh Oscillator that plays this note from the start of its cycle.
+     * @return A new Oscillator for this note.
+     */
+    public Oscillator oscillator() {
+        return new Oscillator(frequency, SAMPLE_RATE);
+    }
+}
@@ -0,0 +1,162 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * VirtualClock
+ * A clock that only moves when it is told to, for simulating a performance much faster than real time.
+ * The Mixer moves it forward one block at a time with advanceTo(). Threads waiting in sleepUntil() are woken
+ * in deadline order, each at exactly its deadline, and the clock doesn't move again until every thread is
+ * idle: asleep, finished, or done with the notes it had in flight (see Clock.enter()).
+ * So the Conductor, the Members and the Mixer run exactly as they would live, just without the waiting,
+ * and every note is triggered at precisely the time the song says.
+ * Starts at 0. The deadlines are kept in a heap of primitive longs, so sleeping allocates nothing.
+ */
+public class VirtualClock implements Clock {
+
+    private final Object lock = new Object();
+    private long[] deadlines = new long[16]; // What the sleeping threads are waiting for, a min-heap. Guarded by lock
+    private int sleepers = 0; // How many deadlines are in the heap. Guarded by lock
+    private long now = 0; // Guarded by lock
+    private int busy = 0; // Threads running, and notes in flight. Guarded by lock
+
+    @Override
+    public long nanoTime() {
+        synchronized (lock) {
+            return now;
+        }
+    }
+
+    @Override
+    public void sleepUntil(long deadlineNanos) throws InterruptedException {
+        synchronized (lock) {
+            if (deadlineNanos <= now) {
+                return;
+            }
+            push(deadlineNanos);
+            idle();
+            try {
+                while (now < deadlineNanos) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                if (now < deadlineNanos) {
+                    remove(deadlineNanos); // Not woken yet, so nobody counted us as busy again
+                    busy++;
+                }
+                throw e;
+            }
+            // advanceTo() already counted us as busy when it woke us
+        }
+    }
+
+    @Override
+    public void enter() {
+        synchronized (lock) {
+            busy++;
+        }
+    }
+
+    @Override
+    public void exit() {
+        synchronized (lock) {
+            idle();
+        }
+    }
+
+    @Override
+    public void advanceTo(long nanos) throws InterruptedException {
+        synchronized (lock) {
+            awaitIdle();
+            // Wake sleepers one deadline at a time, letting each batch finish before the next is due
+            while (sleepers > 0 && deadlines[0] < nanos) {
+                long deadline = deadlines[0];
+                now = deadline;
+                while (sleepers > 0 && deadlines[0] == deadline) {
+                    removeAt(0);
+                    busy++; // Counted before it even wakes, so we can't miss it
+                }
+                lock.notifyAll();
+                awaitIdle();
+            }
+            now = Math.max(now, nanos);
+        }
+    }
+
+    @Override
+    public boolean isSimulated() {
+        return true;
+    }
+
+    /**
+     * One less thing to wait on. Must hold the lock.
+     */
+    private void idle() {
+        if (--busy <= 0) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for every thread to be idle. Must hold the lock.
+     */
+    private void awaitIdle() throws InterruptedException {
+        while (busy > 0) {
+            lock.wait();
+        }
+    }
+
+    /**
+     * Adds a deadline to the heap. Must hold the lock.
+     */
+    private void push(long deadline) {
+        if (sleepers == deadlines.length) {
+            deadlines = Arrays.copyOf(deadlines, sleepers * 2); // Only ever grows to the number of threads
+        }
+        int i = sleepers++;
+        while (i > 0 && deadlines[(i - 1) / 2] > deadline) {
+            deadlines[i] = deadlines[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        deadlines[i] = deadline;
+    }
+
+    /**
+     * Takes one copy of a deadline out of the heap, if it is there. Must hold the lock.
+     */
+    private void remove(long deadline) {
+        for (int i = 0; i < sleepers; i++) {
+            if (deadlines[i] == deadline) {
+                removeAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the deadline at a place in the heap out, and puts the heap back in order. Must hold the lock.
+     */
+    private void removeAt(int i) {
+        long last = deadlines[--sleepers];
+        if (i == sleepers) {
+            return;
+        }
+        // Move the last deadline into the gap, then up or down to where it belongs
+        while (i > 0 && deadlines[(i - 1) / 2] > last) {
+            deadlines[i] = deadlines[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        while (2 * i + 1 < sleepers) {
+            int child = 2 * i + 1;
+            if (child + 1 < sleepers && deadlines[child + 1] < deadlines[child]) {
+                child++;
+            }
+            if (deadlines[child] >= last) {
+                break;
+            }
+            deadlines[i] = deadlines[child];
+            i = child;
+        }
+        deadlines[i] = last;
+    }
+}
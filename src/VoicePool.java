@@ -0,0 +1,243 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * VoicePool
+ * Every voice the Mixer can sound at once, allocated up front and handed out note by note.
+ * A bell that is struck again while it is still ringing gets a second voice, so the two ring over each other,
+ * up to VOICES_PER_NOTE per pitch. Past that the oldest voice of the pitch is stolen: it fades out quickly
+ * and the new strike takes its place. If the whole pool is sounding, the oldest voice of any pitch is cut.
+ * Voices are kept in start order twice over, once for the whole pool and once per pitch, as linked lists
+ * through their indexes. Finding, stealing and freeing a voice is a few array writes, whatever the number of
+ * voices, and nothing is allocated once the pool exists.
+ * Only the Mixer thread may use a VoicePool.
+ */
+class VoicePool {
+
+    static final int MAX_VOICES = 64; // Voices sounding at once, across every pitch
+    static final int VOICES_PER_NOTE = 8; // Voices one pitch can have before its oldest is stolen
+    static final int NONE = -1; // End of a list
+
+    private final Voice[] voices = new Voice[MAX_VOICES];
+    private final int[] prev = new int[MAX_VOICES]; // Next older voice in the pool
+    private final int[] next = new int[MAX_VOICES]; // Next newer voice in the pool
+    private int oldest = NONE;
+    private int newest = NONE;
+    private final int[] pitchPrev = new int[MAX_VOICES]; // Next older voice of the same pitch (fading voices are left out)
+    private final int[] pitchNext = new int[MAX_VOICES]; // Next newer voice of the same pitch
+    private final int[] pitchOldest;
+    private final int[] pitchNewest;
+    private final int[] pitchCount; // Voices of each pitch that aren't fading out
+    private final int[] free = new int[MAX_VOICES]; // Indexes of the voices not in use
+    private int freeCount = MAX_VOICES;
+
+    /**
+     * Constructor for the VoicePool class.
+     * @param pitches How many pitches there are (Note ordinals run from 0 up to pitches - 1).
+     * @param sampleRate The sample rate voices are synthesized at.
+     */
+    VoicePool(int pitches, int sampleRate) {
+        pitchOldest = new int[pitches];
+        pitchNewest = new int[pitches];
+        pitchCount = new int[pitches];
+        Arrays.fill(pitchOldest, NONE);
+        Arrays.fill(pitchNewest, NONE);
+        for (int i = 0; i < MAX_VOICES; i++) {
+            voices[i] = new Voice(sampleRate);
+            free[i] = MAX_VOICES - 1 - i; // Hands out voice 0 first
+        }
+    }
+
+    /**
+     * Starts a new voice for a note, stealing one if the pitch, or the whole pool, has none to spare.
+     * @param note The note to play.
+     * @param pcm The whole note, envelope included, or null to synthesize it as it plays.
+     * @param length How many frames to play it for.
+     * @param triggerNanos When the note was triggered (System.nanoTime()).
+     * @return The voice, ready to be mixed.
+     */
+    Voice strike(Note note, byte[] pcm, int length, long triggerNanos) {
+        final int pitch = note.ordinal();
+        if (pitchCount[pitch] >= VOICES_PER_NOTE) {
+            fadeOut(pitchOldest[pitch]); // The bell is already ringing as often as it can, let the oldest one go
+            ChoirMetrics.INSTANCE.voicesStolen.increment();
+        }
+        int index;
+        if (freeCount > 0) {
+            index = free[--freeCount];
+        } else {
+            index = oldest; // Every voice is sounding, the oldest is cut off to make room
+            unlink(index);
+            ChoirMetrics.INSTANCE.voicesStolen.increment();
+        }
+
+        Voice voice = voices[index];
+        voice.pitch = pitch;
+        voice.pcm = pcm;
+        if (pcm == null) {
+            voice.oscillator.retune(note.frequency(), voice.sampleRate);
+        }
+        voice.length = length;
+        voice.triggerNanos = triggerNanos;
+        voice.position = 0;
+        voice.startFrame = 0;
+        voice.fadeStart = length;
+        voice.end = length;
+
+        // Newest in the pool, and newest of its pitch
+        prev[index] = newest;
+        next[index] = NONE;
+        if (newest != NONE) {
+            next[newest] = index;
+        } else {
+            oldest = index;
+        }
+        newest = index;
+        pitchPrev[index] = pitchNewest[pitch];
+        pitchNext[index] = NONE;
+        if (pitchNewest[pitch] != NONE) {
+            pitchNext[pitchNewest[pitch]] = index;
+        } else {
+            pitchOldest[pitch] = index;
+        }
+        pitchNewest[pitch] = index;
+        pitchCount[pitch]++;
+        return voice;
+    }
+
+    /**
+     * Gets the oldest sounding voice, to walk the pool from.
+     * @return Its index, or NONE if nothing is sounding.
+     */
+    int first() {
+        return oldest;
+    }
+
+    /**
+     * Gets the next newer sounding voice. Look it up before freeing the current one.
+     * @param index The current voice.
+     * @return The next voice's index, or NONE if this was the newest.
+     */
+    int next(int index) {
+        return next[index];
+    }
+
+    /**
+     * Gets a voice by index.
+     * @param index Which voice.
+     * @return The voice.
+     */
+    Voice voice(int index) {
+        return voices[index];
+    }
+
+    /**
+     * Frees a voice that has finished playing.
+     * @param index Which voice.
+     */
+    void release(int index) {
+        unlink(index);
+        voices[index].pcm = null; // Don't keep the samples alive, they may be evicted from the cache
+        free[freeCount++] = index;
+    }
+
+    /**
+     * Counts the voices sounding, fading ones included.
+     * @return How many voices are in use.
+     */
+    int size() {
+        return MAX_VOICES - freeCount;
+    }
+
+    /**
+     * Tells whether anything is sounding.
+     * @return True if every voice is free.
+     */
+    boolean isEmpty() {
+        return freeCount == MAX_VOICES;
+    }
+
+    /**
+     * Starts fading a voice out so it can be replaced. It keeps its place in the pool until it is silent,
+     * but no longer counts towards its pitch.
+     */
+    private void fadeOut(int index) {
+        Voice voice = voices[index];
+        unlinkPitch(index);
+        voice.fadeStart = voice.position;
+        voice.end = Math.min(voice.length, voice.position + MixKernel.RELEASE_FRAMES);
+    }
+
+    /**
+     * Takes a voice out of both lists.
+     */
+    private void unlink(int index) {
+        if (!voices[index].isFading()) {
+            unlinkPitch(index); // Fading voices already left their pitch's list
+        }
+        int p = prev[index];
+        int n = next[index];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            oldest = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        } else {
+            newest = p;
+        }
+    }
+
+    /**
+     * Takes a voice out of its pitch's list.
+     */
+    private void unlinkPitch(int index) {
+        final int pitch = voices[index].pitch;
+        int p = pitchPrev[index];
+        int n = pitchNext[index];
+        if (p != NONE) {
+            pitchNext[p] = n;
+        } else {
+            pitchOldest[pitch] = n;
+        }
+        if (n != NONE) {
+            pitchPrev[n] = p;
+        } else {
+            pitchNewest[pitch] = p;
+        }
+        pitchCount[pitch]--;
+    }
+
+    /**
+     * Voice - One note being played by the Mixer, and how far into it we are.
+     * Plays either from cached PCM, or from its Oscillator for notes too long to cache.
+     * Reused from note to note, so every field is rewritten by strike().
+     */
+    static final class Voice {
+        final Oscillator oscillator; // Keeps its phase from block to block when there's no PCM
+        final int sampleRate;
+        byte[] pcm; // The whole note, envelope included (null if synthesized as it plays)
+        int pitch; // Note ordinal
+        int length; // Full length of the note, in frames
+        long triggerNanos; // When the Member was told to play it
+        int position; // How far into the note the next block starts
+        int startFrame; // Where in its first block the voice comes in (0 once it is playing)
+        int fadeStart; // Where a stolen voice started fading out (length if it isn't fading)
+        int end; // Where the voice stops: its length, or the end of its fade if it was stolen
+
+        Voice(int sampleRate) {
+            this.sampleRate = sampleRate;
+            this.oscillator = new Oscillator(0.0d, sampleRate);
+        }
+
+        /**
+         * Tells whether the voice was stolen and is fading out.
+         * @return True if it is fading out.
+         */
+        boolean isFading() {
+            return fadeStart < length;
+        }
+    }
+}
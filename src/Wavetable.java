@@ -0,0 +1,64 @@
+package src;
+
+/**
+ * Wavetable
+ * One shared cycle of a sine wave that every voice in the choir reads from.
+ * Instead of every Note computing a full measure of samples up front, an Oscillator steps
+ * through this single table at whatever speed gives its pitch, for as long as the note lasts.
+ * The table is only built the first time something actually plays.
+ */
+final class Wavetable {
+
+    public static final int TABLE_BITS = 12; // 4096 entries, plenty for 8 bit output
+    public static final int TABLE_SIZE = 1 << TABLE_BITS;
+    public static final double FREQUENCY_A4_HZ = 440.0d; // Pitch every other pitch is worked out from
+    private static final double MAX_VOLUME = 127.0d;
+
+    private Wavetable() {
+        // Only static helpers here
+    }
+
+    /**
+     * Holder - Builds the table on first use (the JVM guarantees this happens once, thread-safely).
+     */
+    private static final class Holder {
+        static final byte[] TABLE = build();
+
+        private static byte[] build() {
+            byte[] table = new byte[TABLE_SIZE];
+            final double step = (2.0d * Math.PI) / TABLE_SIZE;
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                table[i] = (byte) (Math.sin(i * step) * MAX_VOLUME);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Gets the shared single-cycle table.
+     * @return The table, TABLE_SIZE samples of one sine cycle.
+     */
+    static byte[] table() {
+        return Holder.TABLE;
+    }
+
+    /**
+     * Works out the frequency of any pitch, in any octave.
+     * @param halfStepsFromA4 How many half steps above (or below, if negative) A4 the pitch is.
+     * @return The frequency in Hz.
+     */
+    static double frequencyOf(double halfStepsFromA4) {
+        return FREQUENCY_A4_HZ * Math.pow(2.0d, halfStepsFromA4 / 12.0d);
+    }
+
+    /**
+     * Works out how far an Oscillator moves through the table per sample for a given pitch.
+     * The whole table is one trip around a 32 bit counter, so the phase wraps around by itself.
+     * @param frequency The frequency in Hz.
+     * @param sampleRate The output sample rate.
+     * @return The phase step, as an unsigned 32 bit fraction of a cycle.
+     */
+    static int phaseStep(double frequency, int sampleRate) {
+        return (int) Math.round(frequency / sampleRate * 4294967296.0d);
+    }
+}
@@ -0,0 +1,159 @@
+package src;
+
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WriteAheadController
+ * Keeps the Mixer only a little way ahead of what the line is actually playing (low latency mode).
+ * A line with a big buffer lets the Mixer run up to a whole buffer ahead, and a note triggered now
+ * isn't heard until everything already queued in front of it has played. The controller holds the
+ * Mixer back until the line is down to a target number of queued frames, so new notes are mixed
+ * into blocks that play almost straight away.
+ * The target adapts to the machine: an underrun (the line running dry before the next block
+ * arrived) makes it bigger, and a long glitch-free stretch lets it shrink again, so it settles on
+ * the smallest write-ahead that plays cleanly. It only ever moves within the line's buffer, since
+ * the buffer itself can't be resized without closing the line (and glitching).
+ * Only the Mixer thread uses a WriteAheadController.
+ */
+class WriteAheadController {
+
+    // One block being written plus a quarter block of margin, anything less underruns on the first late wake up
+    static final int MIN_TARGET_FRAMES = Mixer.BLOCK_FRAMES + Mixer.BLOCK_FRAMES / 4;
+    private static final int GROW_FRAMES = 2 * Mixer.BLOCK_FRAMES; // How much an underrun adds to the target
+    private static final int SHRINK_FRAMES = Mixer.BLOCK_FRAMES / 4; // How much a clean stretch takes off
+    private static final int CLEAN_SECONDS_TO_SHRINK = 5; // How long the line has to play cleanly before the target shrinks
+
+    private final int sampleRate;
+    private final long cleanBlocksToShrink; // CLEAN_SECONDS_TO_SHRINK in blocks, at the line's rate
+    private final int maxTargetFrames; // The line's buffer size
+    private int targetFrames; // How many frames to keep queued in the line
+    private long framesWritten = 0; // Everything handed to the line so far
+    private long cleanBlocks = 0; // Blocks written since the last underrun or shrink
+    private int underruns = 0;
+    private int smallestTargetFrames; // Lowest the target got to
+    private int largestTargetFrames; // Highest the target got to
+
+    /**
+     * Constructor for the WriteAheadController class.
+     * @param targetFrames How many frames to keep queued in the line to begin with.
+     * @param lineBufferFrames The size of the line's buffer, the target never goes past it.
+     * @param sampleRate The line's sample rate.
+     */
+    WriteAheadController(int targetFrames, int lineBufferFrames, int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.cleanBlocksToShrink = (long) CLEAN_SECONDS_TO_SHRINK * sampleRate / Mixer.BLOCK_FRAMES;
+        this.maxTargetFrames = Math.max(MIN_TARGET_FRAMES, lineBufferFrames);
+        this.targetFrames = clamp(targetFrames);
+        this.smallestTargetFrames = this.targetFrames;
+        this.largestTargetFrames = this.targetFrames;
+    }
+
+    /**
+     * Works out how many frames a write-ahead of the given length is.
+     * @param millis The write-ahead, in milliseconds.
+     * @param sampleRate The line's sample rate.
+     * @return The write-ahead, in frames.
+     */
+    static int framesFor(int millis, int sampleRate) {
+        return (int) ((long) millis * sampleRate / 1000);
+    }
+
+    /**
+     * Picks a line buffer size for a starting target: room for the target to grow to four times its size,
+     * and never less than a tenth of a second or more than a whole one.
+     * @param targetFrames The starting target.
+     * @param sampleRate The line's sample rate.
+     * @return The buffer size to open the line with, in frames.
+     */
+    static int lineBufferFor(int targetFrames, int sampleRate) {
+        return (int) Math.min(sampleRate, Math.max(sampleRate / 10, 4L * targetFrames));
+    }
+
+    /**
+     * Waits until the line has played down to the target, so the next block can be mixed as late as possible.
+     * @param line The line being written to.
+     * @param blockFrames The size of the block about to be written.
+     */
+    void awaitRoom(SourceDataLine line, int blockFrames) {
+        long excess;
+        while ((excess = queuedFrames(line) + blockFrames - targetFrames) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(excess * 1_000_000_000L / sampleRate); // About how long the line takes to play the excess
+        }
+    }
+
+    /**
+     * Checks how much the line still has queued just before a block is written, and adapts the target.
+     * @param line The line being written to.
+     * @return True if the line had run dry (an underrun), false if it still had something to play.
+     */
+    boolean checkUnderrun(SourceDataLine line) {
+        boolean underrun = framesWritten > 0 && queuedFrames(line) <= 0;
+        if (underrun) {
+            underruns++;
+            cleanBlocks = 0;
+            targetFrames = clamp(targetFrames + GROW_FRAMES);
+            largestTargetFrames = Math.max(largestTargetFrames, targetFrames);
+        } else if (++cleanBlocks >= cleanBlocksToShrink) {
+            cleanBlocks = 0;
+            targetFrames = clamp(targetFrames - SHRINK_FRAMES);
+            smallestTargetFrames = Math.min(smallestTargetFrames, targetFrames);
+        }
+        return underrun;
+    }
+
+    /**
+     * Tells the controller a block has been handed to the line.
+     * @param frames How many frames were written.
+     */
+    void written(int frames) {
+        framesWritten += frames;
+    }
+
+    /**
+     * Estimates how many frames are queued in the line and not yet played.
+     * Counts both by frame position and by available(), and trusts whichever says less, since one of
+     * them is often only updated in coarse steps.
+     */
+    private long queuedFrames(SourceDataLine line) {
+        long byPosition = framesWritten - line.getLongFramePosition();
+        long byAvailable = (line.getBufferSize() - line.available()) / line.getFormat().getFrameSize();
+        return Math.max(0, Math.min(byPosition, byAvailable));
+    }
+
+    private int clamp(int frames) {
+        return Math.max(MIN_TARGET_FRAMES, Math.min(maxTargetFrames, frames));
+    }
+
+    /**
+     * Gets how many frames the controller currently keeps queued in the line.
+     * @return The target, in frames.
+     */
+    int getTargetFrames() {
+        return targetFrames;
+    }
+
+    /**
+     * Gets how many times the line ran dry.
+     * @return The number of underruns.
+     */
+    int getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * Prints where the write-ahead settled and how many underruns it took to get there.
+     */
+    void report() {
+        System.out.printf("Low latency: write-ahead %.1f ms (went between %.1f and %.1f ms), %d underrun(s).%n",
+                millis(targetFrames), millis(smallestTargetFrames), millis(largestTargetFrames), underruns);
+        if (underruns > 0) {
+            System.err.println("Warning: The audio line ran dry " + underruns + " time(s), so the write-ahead was raised. "
+                    + "Start with a larger --latency to avoid the glitches.");
+        }
+    }
+
+    private double millis(int frames) {
+        return frames * 1000.0d / sampleRate;
+    }
+}